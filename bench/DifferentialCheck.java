@@ -0,0 +1,819 @@
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Randomized round-trip and differential checks for every arithmetic and encoding path, plus a
+ * throughput gate. Exits with status 1 if any check fails, so a build can stop on it.
+ *
+ * Each property is checked on random keys and messages against java.math.BigInteger or a plain
+ * reference implementation. A failure prints the seed, so the run can be repeated with -Drsa.check.seed.
+ *
+ * Throughput of each path is scored as its speed relative to a reference doing the same work in the
+ * same run: a frozen copy of the original implementation or the plain JDK equivalent. Scores barely
+ * depend on the machine, so they are kept in a committed baseline (-Drsa.check.baseline, by default
+ * bench/throughput-baseline.properties), and every run fails when any path scores lower than its
+ * baseline by more than the threshold (-Drsa.check.threshold, default 0.30 for 30%). A path below
+ * the threshold is measured again before it fails, so one noisy round does not stop the build.
+ * After an intended change, run with -Drsa.check.record=true to record new scores and commit them.
+ *
+ * Usage: java DifferentialCheck [iterations]
+ */
+public class DifferentialCheck
+{
+    private static final long MAX_MODULUS = 3037000499L; // Largest n whose square fits in a long; the plain paths overflow above it
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int THROUGHPUT_ROUNDS = 5;
+    private static final long ROUND_NANOS = 100_000_000; // Minimum length of one timed round
+    private static final int MEASURE_ATTEMPTS = 3; // Measurements of a path before a low score fails the check
+    private static final int REKEY_FILES = 4;
+    private static final int REKEY_THREADS = 4;
+
+    private static volatile long sink; // Keeps the JIT from discarding measured work
+
+    private final Random random;
+    private final int iterations;
+    private int failures;
+
+    public static void main(String[] args) throws IOException
+    {
+        long seed = Long.getLong("rsa.check.seed", System.nanoTime());
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        DifferentialCheck check = new DifferentialCheck(seed, iterations);
+
+        System.out.println("Seed " + seed + ", " + iterations + " iterations per property");
+        check.checkModularPower();
+        check.checkModInverse();
+        check.checkPrimality();
+        check.checkKeyRoundTrip();
+        check.checkCodec();
+        check.checkStreaming();
+        check.checkThroughput(new File(System.getProperty("rsa.check.baseline", "bench/throughput-baseline.properties")),
+                Double.parseDouble(System.getProperty("rsa.check.threshold", "0.30")), Boolean.getBoolean("rsa.check.record"));
+
+        if (check.failures > 0)
+        {
+            System.out.println(check.failures + " check(s) failed. Reproduce with -Drsa.check.seed=" + seed);
+            System.exit(1);
+        }
+        System.out.println("All checks passed.");
+    }
+
+    /**
+     * Creates a checker.
+     *
+     * @param seed       The seed for every random choice.
+     * @param iterations The number of random cases per property.
+     */
+    public DifferentialCheck(long seed, int iterations)
+    {
+        this.random = new Random(seed);
+        this.iterations = iterations;
+    }
+
+    /**
+     * Checks fastExponentiation, computeModularPower and the constant-time engine against BigInteger.modPow.
+     */
+    private void checkModularPower()
+    {
+        for (int i = 0; i < iterations; i++)
+        {
+            long modulus = i % 10 == 0 ? MAX_MODULUS - random.nextInt(1000) : 2 + randomBelow(MAX_MODULUS - 1);
+            long base = random.nextLong() & Long.MAX_VALUE;
+            long exponent = i % 7 == 0 ? random.nextInt(4) : random.nextLong() & Long.MAX_VALUE;
+            long expected = BigInteger.valueOf(base).modPow(BigInteger.valueOf(exponent), BigInteger.valueOf(modulus)).longValue();
+
+            expect("fastExponentiation", base, exponent, modulus, expected, Encryption.fastExponentiation(base, exponent, modulus));
+            expect("computeModularPower", base, exponent, modulus, expected, Decryption.computeModularPower(base, exponent, modulus));
+            if (ConstantTimeExponentiation.supports(modulus))
+            {
+                expect("ConstantTimeExponentiation", base, exponent, modulus, expected,
+                        new ConstantTimeExponentiation(modulus).modPow(base, exponent));
+            }
+        }
+    }
+
+    /**
+     * Checks calculateModInverse against BigInteger.modInverse for coprime inputs.
+     */
+    private void checkModInverse()
+    {
+        for (int i = 0; i < iterations; i++)
+        {
+            long phi = 3 + randomBelow(MAX_MODULUS);
+            long e = 2 + randomBelow(phi - 2);
+            if (Encryption.findGCD(e, phi) != 1)
+            	continue;
+            long expected = BigInteger.valueOf(e).modInverse(BigInteger.valueOf(phi)).longValue();
+            long actual = Encryption.calculateModInverse(e, phi);
+            if (actual != expected)
+            {
+                fail("calculateModInverse(" + e + ", " + phi + ") = " + actual + ", expected " + expected);
+            }
+        }
+    }
+
+    /**
+     * Checks checkPrime, the sieve and generateRandomPrime against BigInteger.isProbablePrime, inside
+     * and beyond the sieve limit, where both fall back to trial division.
+     */
+    private void checkPrimality()
+    {
+        PrimeSieve sieve = PrimeSieve.shared(PrimeSieve.maxLimit());
+        for (int i = 0; i < iterations * 10; i++)
+        {
+            long num = i % 2 == 0 ? randomBelow(sieve.getLimit() + 1L) : randomBelow(MAX_MODULUS);
+            boolean expected = num > 1 && BigInteger.valueOf(num).isProbablePrime(64);
+            if (Encryption.checkPrime(num) != expected)
+            {
+                fail("checkPrime(" + num + ") = " + !expected);
+            }
+        }
+        for (int i = 0; i < iterations; i++)
+        {
+            int min = 2 + random.nextInt(100_000);
+            int max = min + 200 + random.nextInt(10_000); // Prime gaps in this range are well below 200
+            long prime = Encryption.generateRandomPrime(min, max);
+            if (prime < min || prime > max || !BigInteger.valueOf(prime).isProbablePrime(64))
+            {
+                fail("generateRandomPrime(" + min + ", " + max + ") = " + prime);
+            }
+        }
+        for (int i = 0; i < iterations / 10 + 1; i++)
+        {
+            int min = sieve.getLimit() + 1 + random.nextInt(Integer.MAX_VALUE - sieve.getLimit() - 2000);
+            int max = min + 1000; // Prime gaps below 2^31 are under 300
+            long prime = Encryption.generateRandomPrime(min, max);
+            if (prime < min || prime > max || !BigInteger.valueOf(prime).isProbablePrime(64))
+            {
+                fail("generateRandomPrime(" + min + ", " + max + ") beyond the sieve = " + prime);
+            }
+        }
+    }
+
+    /**
+     * Generates keys the way Encryption does and checks that every printable character survives
+     * encryption and decryption on the fast and constant-time paths.
+     */
+    private void checkKeyRoundTrip()
+    {
+        for (int i = 0; i < iterations / 10 + 1; i++)
+        {
+            long primaryPrime = Encryption.generateRandomPrime(100, 40_000);
+            long secondaryPrime;
+            do
+            {
+                secondaryPrime = Encryption.generateRandomPrime(100, 40_000);
+            }
+            while (secondaryPrime == primaryPrime);
+
+            long modulus = primaryPrime * secondaryPrime;
+            long totient = (primaryPrime - 1) * (secondaryPrime - 1);
+            long publicKey = Encryption.findPublicKey(totient);
+            long privateKey = Encryption.calculateModInverse(publicKey, totient);
+            ConstantTimeExponentiation constantTime = new ConstantTimeExponentiation(modulus);
+
+            for (int ch = 32; ch <= 126; ch++)
+            {
+                long encrypted = Encryption.fastExponentiation(ch, publicKey, modulus);
+                long fast = Decryption.computeModularPower(encrypted, privateKey, modulus);
+                long hardened = constantTime.modPow(encrypted, privateKey);
+                if (fast != ch || hardened != ch)
+                {
+                    fail("Round trip of " + ch + " with p=" + primaryPrime + " q=" + secondaryPrime
+                            + " gave " + fast + " (fast) and " + hardened + " (constant-time)");
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the codec matches Long.toString and Long.parseLong, and reports bad tokens at the right offset.
+     *
+     * @throws IOException Never; decoding a valid token does not fail.
+     */
+    private void checkCodec() throws IOException
+    {
+        byte[] buffer = new byte[32];
+        for (int i = 0; i < iterations * 10; i++)
+        {
+            long value = i < 4 ? new long[] { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE }[i] : random.nextLong() >> random.nextInt(64);
+            int end = CiphertextCodec.encode(value, buffer, 0);
+            String text = new String(buffer, 0, end, StandardCharsets.US_ASCII);
+            if (!text.equals(Long.toString(value)))
+            {
+                fail("encode(" + value + ") wrote \"" + text + "\"");
+            }
+            long[] parsed = CiphertextCodec.decode(buffer, end);
+            if (parsed.length != 1 || parsed[0] != value)
+            {
+                fail("decode(\"" + text + "\") = " + Arrays.toString(parsed));
+            }
+        }
+
+        // Whole lines with mixed separators and zero padding, so the growing path and long tokens are covered
+        for (int i = 0; i < iterations / 10 + 1; i++)
+        {
+            long[] values = new long[random.nextInt(500)];
+            StringBuilder line = new StringBuilder();
+            for (int v = 0; v < values.length; v++)
+            {
+                values[v] = random.nextLong() >> random.nextInt(64);
+                line.append(" \t\r\n".charAt(random.nextInt(4)));
+                if (values[v] >= 0 && random.nextInt(10) == 0)
+                	line.append("000000000000000000");
+                line.append(values[v]);
+            }
+            byte[] data = line.toString().getBytes(StandardCharsets.US_ASCII);
+            long[] parsed = CiphertextCodec.decode(data, data.length);
+            long[] into = new long[(data.length + 1) / 2];
+            int count = CiphertextCodec.decode(data, 0, data.length, into);
+            if (!Arrays.equals(parsed, values) || !Arrays.equals(Arrays.copyOf(into, count), values))
+            {
+                fail("decode of a " + values.length + "-value line did not return the encoded values");
+            }
+        }
+
+        String[] malformed = { "12 x4", "5 -", "1 99999999999999999999", "7\n8 9a" };
+        int[] offsets = { 3, 2, 2, 4 }; // Byte offset of the start of the bad token
+        for (int i = 0; i < malformed.length; i++)
+        {
+            byte[] data = malformed[i].getBytes(StandardCharsets.US_ASCII);
+            try
+            {
+                CiphertextCodec.decode(data, data.length);
+                fail("decode(\"" + malformed[i] + "\") accepted a malformed token");
+            }
+            catch (CiphertextCodec.MalformedTokenException e)
+            {
+                if (e.getOffset() != offsets[i])
+                {
+                    fail("decode(\"" + malformed[i] + "\") reported offset " + e.getOffset() + ", expected " + offsets[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-keys appended multi-segment files in parallel and checks that every segment still decrypts
+     * to its original text under the new key.
+     *
+     * @throws IOException If the temporary files cannot be written or read.
+     */
+    private void checkStreaming() throws IOException
+    {
+        File work = Files.createTempDirectory("rsa-check").toFile();
+        try
+        {
+            RSAKeyPair oldKey = randomKey();
+            RSAKeyPair newKey = randomKey();
+            List<File> files = new ArrayList<>();
+            List<List<String>> texts = new ArrayList<>();
+            for (int f = 0; f < 4; f++)
+            {
+                File file = new File(work, "cipher" + f + ".txt");
+                List<String> segments = new ArrayList<>();
+                int segmentCount = 1 + random.nextInt(5);
+                for (int s = 0; s < segmentCount; s++)
+                {
+                    String text = randomText(random.nextInt(f == 0 ? 100_000 : 200));
+                    SegmentIndex.appendSegment(file, Encryption.encryptText(text, oldKey.getPublicKey(), oldKey.getModulus()), text.length());
+                    segments.add(text);
+                }
+                files.add(file);
+                texts.add(segments);
+            }
+
+            int failed;
+            try
+            {
+                failed = new RekeyPipeline(oldKey, newKey, new File(work, "rekey.checkpoint")).run(files, 3, new PrintStream(OutputStream.nullOutputStream()));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while re-keying", e);
+            }
+            if (failed != 0)
+            {
+                fail("RekeyPipeline failed on " + failed + " file(s)");
+            }
+
+            for (int f = 0; f < files.size(); f++)
+            {
+                SegmentIndex index = SegmentIndex.load(files.get(f));
+                if (index.size() != texts.get(f).size())
+                {
+                    fail("Re-keyed " + files.get(f).getName() + " has " + index.size() + " segments, expected " + texts.get(f).size());
+                    continue;
+                }
+                for (int s = 0; s < index.size(); s++)
+                {
+                    StringBuilder decrypted = new StringBuilder();
+                    for (long value : index.readSegments(s, s))
+                    {
+                        decrypted.append((char) Decryption.computeModularPower(value, newKey.getPrivateKey(), newKey.getModulus()));
+                    }
+                    if (!decrypted.toString().equals(texts.get(f).get(s)))
+                    {
+                        fail("Segment " + s + " of " + files.get(f).getName() + " did not survive re-keying");
+                    }
+                }
+            }
+        }
+        finally
+        {
+            for (File file : Objects.requireNonNull(work.listFiles()))
+            	file.delete();
+            work.delete();
+        }
+    }
+
+    /**
+     * Scores every path against its reference and compares the scores with the committed baseline.
+     *
+     * @param baselineFile The committed baseline of scores.
+     * @param threshold    The allowed drop in score as a fraction, e.g. 0.30 for 30%.
+     * @param record       True to store the measured scores as the new baseline instead of checking them.
+     * @throws IOException If the baseline cannot be read or written, or the re-key files cannot be written.
+     */
+    private void checkThroughput(File baselineFile, double threshold, boolean record) throws IOException
+    {
+        // A fixed key and message, so runs with different seeds do the same work
+        RSAKeyPair key = fixedKey(39989, 39983);
+        char[] message = new char[20_000];
+        long[] plain = new long[message.length];
+        for (int i = 0; i < message.length; i++)
+        {
+            message[i] = (char) (32 + i % 95);
+            plain[i] = message[i];
+        }
+        long[] ciphertext = Encryption.encryptText(new String(message), key.getPublicKey(), key.getModulus());
+        ConstantTimeExponentiation constantTime = new ConstantTimeExponentiation(key.getModulus());
+        byte[] encoded = CiphertextCodec.encodeLine(ciphertext, ciphertext.length);
+        String encodedText = new String(encoded, StandardCharsets.US_ASCII);
+        byte[] scratch = new byte[32];
+        PrimeSieve sieve = PrimeSieve.shared(PrimeSieve.maxLimit());
+
+        Properties baseline = new Properties();
+        if (baselineFile.exists())
+        {
+            try (InputStream in = new FileInputStream(baselineFile))
+            {
+                baseline.load(in);
+            }
+        }
+        ThroughputGate gate = new ThroughputGate(baseline, threshold, record);
+
+        gate.check("encrypt.fastExponentiation", plain.length, () ->
+        {
+            long sum = 0;
+            for (long value : plain)
+            	sum += Encryption.fastExponentiation(value, key.getPublicKey(), key.getModulus());
+            return sum;
+        }, () ->
+        {
+            long sum = 0;
+            for (long value : plain)
+            	sum += referenceModPow(value, key.getPublicKey(), key.getModulus());
+            return sum;
+        });
+        gate.check("decrypt.computeModularPower", ciphertext.length, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += Decryption.computeModularPower(value, key.getPrivateKey(), key.getModulus());
+            return sum;
+        }, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += referenceModPow(value, key.getPrivateKey(), key.getModulus());
+            return sum;
+        });
+        gate.check("decrypt.constantTime", ciphertext.length, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += constantTime.modPow(value, key.getPrivateKey());
+            return sum;
+        }, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += referenceModPow(value, key.getPrivateKey(), key.getModulus());
+            return sum;
+        });
+        gate.check("codec.decode", ciphertext.length, () -> CiphertextCodec.decode(encoded, encoded.length).length, () ->
+        {
+            long sum = 0;
+            for (String token : encodedText.split(" "))
+            	sum += Long.parseLong(token);
+            return sum;
+        });
+        gate.check("codec.encode", ciphertext.length, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += CiphertextCodec.encode(value, scratch, 0);
+            return sum;
+        }, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += Long.toString(value).getBytes(StandardCharsets.US_ASCII).length;
+            return sum;
+        });
+        gate.check("sieve.isPrime", ciphertext.length, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += sieve.isPrime(value % sieve.getLimit()) ? 1 : 0;
+            return sum;
+        }, () ->
+        {
+            long sum = 0;
+            for (long value : ciphertext)
+            	sum += referenceIsPrime(value % sieve.getLimit()) ? 1 : 0;
+            return sum;
+        });
+        checkRekeyThroughput(gate);
+
+        if (record)
+        {
+            try (OutputStream out = new FileOutputStream(baselineFile))
+            {
+                gate.scores.store(out, "Throughput scores relative to same-run references; record with -Drsa.check.record=true");
+            }
+            System.out.println("Recorded baseline in " + baselineFile);
+        }
+    }
+
+    /**
+     * Scores streaming re-keying against a naive whole-file rewrite, and parallel re-keying against
+     * the same pipeline on one thread. Every run re-keys the files to the second key and back, so
+     * each run does the same work.
+     *
+     * @param gate The gate to check the scores with.
+     * @throws IOException If the temporary files cannot be written.
+     */
+    private void checkRekeyThroughput(ThroughputGate gate) throws IOException
+    {
+        RSAKeyPair first = fixedKey(39989, 39983);
+        RSAKeyPair second = fixedKey(39979, 39971);
+        String text = randomText(10_000);
+        File work = Files.createTempDirectory("rsa-throughput").toFile();
+        try
+        {
+            List<File> files = new ArrayList<>();
+            List<File> referenceFiles = new ArrayList<>();
+            long[] values = Encryption.encryptText(text, first.getPublicKey(), first.getModulus());
+            for (int f = 0; f < REKEY_FILES; f++)
+            {
+                File file = new File(work, "stream" + f + ".txt");
+                File referenceFile = new File(work, "reference" + f + ".txt");
+                CiphertextCodec.writeFile(file, values, values.length);
+                CiphertextCodec.writeFile(referenceFile, values, values.length);
+                files.add(file);
+                referenceFiles.add(referenceFile);
+            }
+            File checkpoint = new File(work, "rekey.checkpoint");
+            int operations = REKEY_FILES * values.length * 2;
+
+            gate.check("rekey.stream", operations,
+                    () -> rekeyBothWays(first, second, files, checkpoint, 1),
+                    () -> referenceRekey(first, second, referenceFiles) + referenceRekey(second, first, referenceFiles));
+
+            // Score parallel speed-up per usable thread, so the score means the same on any core count
+            int usable = Math.min(REKEY_THREADS, Runtime.getRuntime().availableProcessors());
+            gate.check("rekey.parallel", operations, operations * usable,
+                    () -> rekeyBothWays(first, second, files, checkpoint, REKEY_THREADS),
+                    () -> rekeyBothWays(first, second, files, checkpoint, 1));
+        }
+        finally
+        {
+            for (File file : Objects.requireNonNull(work.listFiles()))
+            	file.delete();
+            work.delete();
+        }
+    }
+
+    /**
+     * Re-keys files from one key to another and back with RekeyPipeline.
+     *
+     * @param first      The key the files start under.
+     * @param second     The key to re-key them to before going back.
+     * @param files      The files.
+     * @param checkpoint The checkpoint file; cleared by each successful run.
+     * @param threads    The number of worker threads.
+     * @return The number of files re-keyed.
+     * @throws IOException If a run fails.
+     */
+    private static long rekeyBothWays(RSAKeyPair first, RSAKeyPair second, List<File> files, File checkpoint, int threads) throws IOException
+    {
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        try
+        {
+            int failed = new RekeyPipeline(first, second, checkpoint).run(files, threads, quiet)
+                    + new RekeyPipeline(second, first, checkpoint).run(files, threads, quiet);
+            if (failed != 0)
+            {
+                throw new IOException("RekeyPipeline failed on " + failed + " file(s) while measuring throughput");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while measuring throughput", e);
+        }
+        return files.size() * 2L;
+    }
+
+    /**
+     * Re-keys files the straightforward way: read each file whole, split it into strings, convert every
+     * value with the reference exponentiation and write it back through a StringBuilder.
+     *
+     * @param oldKey The key the files are under.
+     * @param newKey The key to re-key them to.
+     * @param files  The files.
+     * @return The number of values re-keyed.
+     * @throws IOException If a file cannot be read or written.
+     */
+    private static long referenceRekey(RSAKeyPair oldKey, RSAKeyPair newKey, List<File> files) throws IOException
+    {
+        long count = 0;
+        for (File file : files)
+        {
+            String[] tokens = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim().split(" ");
+            StringBuilder out = new StringBuilder();
+            for (String token : tokens)
+            {
+                long plain = referenceModPow(Long.parseLong(token), oldKey.getPrivateKey(), oldKey.getModulus());
+                if (out.length() > 0)
+                	out.append(' ');
+                out.append(referenceModPow(plain, newKey.getPublicKey(), newKey.getModulus()));
+            }
+            out.append(System.lineSeparator());
+            Files.write(file.toPath(), out.toString().getBytes(StandardCharsets.US_ASCII));
+            count += tokens.length;
+        }
+        return count;
+    }
+
+    /**
+     * Square-and-multiply exactly as the tools first shipped it. Kept frozen as the reference for the
+     * exponentiation scores; changing it would make the committed baseline meaningless.
+     *
+     * @param base     The base value.
+     * @param exponent The exponent value.
+     * @param mod      The modulus value.
+     * @return The result of (base^exponent) % mod.
+     */
+    private static long referenceModPow(long base, long exponent, long mod)
+    {
+        long result = 1;
+        base %= mod;
+        while (exponent > 0)
+        {
+            if ((exponent & 1) == 1)
+            	result = (result * base) % mod;
+            exponent >>= 1;
+            base = (base * base) % mod;
+        }
+        return result;
+    }
+
+    /**
+     * Trial division exactly as the tools first shipped it. Kept frozen as the reference for the sieve score.
+     *
+     * @param number The number to check.
+     * @return True if the number is prime.
+     */
+    private static boolean referenceIsPrime(long number)
+    {
+        if (number <= 1)
+        	return false;
+        if (number <= 3)
+        	return true;
+        if (number % 2 == 0 || number % 3 == 0)
+        	return false;
+        for (long i = 5; i * i <= number; i += 6)
+        {
+            if (number % i == 0 || number % (i + 2) == 0)
+            	return false;
+        }
+        return true;
+    }
+
+    /**
+     * Builds a key pair from two fixed primes the way Encryption does.
+     *
+     * @param primaryPrime   The first prime.
+     * @param secondaryPrime The second prime.
+     * @return The key pair.
+     */
+    private static RSAKeyPair fixedKey(long primaryPrime, long secondaryPrime)
+    {
+        long totient = (primaryPrime - 1) * (secondaryPrime - 1);
+        long publicKey = Encryption.findPublicKey(totient);
+        return new RSAKeyPair(primaryPrime * secondaryPrime, publicKey, Encryption.calculateModInverse(publicKey, totient));
+    }
+
+    /**
+     * Compares throughput scores with the baseline, or collects them for recording.
+     */
+    private class ThroughputGate
+    {
+        private final Properties baseline;
+        private final double threshold;
+        private final boolean record;
+        private final Properties scores = new Properties(); // Scores measured in this run
+
+        /**
+         * Creates a gate.
+         *
+         * @param baseline  The committed scores.
+         * @param threshold The allowed drop in score as a fraction.
+         * @param record    True to collect scores instead of checking them.
+         */
+        ThroughputGate(Properties baseline, double threshold, boolean record)
+        {
+            this.baseline = baseline;
+            this.threshold = threshold;
+            this.record = record;
+        }
+
+        /**
+         * Scores a path whose reference does the same number of operations per run.
+         *
+         * @param name       The name of the path.
+         * @param operations The number of operations one run of either workload performs.
+         * @param path       The path being scored.
+         * @param reference  The reference doing the same work.
+         * @throws IOException If a workload fails.
+         */
+        void check(String name, int operations, Workload path, Workload reference) throws IOException
+        {
+            check(name, operations, operations, path, reference);
+        }
+
+        /**
+         * Scores a path as its throughput divided by its reference's, measured back to back, and fails
+         * if the score stays below the baseline by more than the threshold over MEASURE_ATTEMPTS tries.
+         *
+         * @param name                The name of the path.
+         * @param operations          The number of operations one run of the path is credited with.
+         * @param referenceOperations The number of operations one run of the reference is credited with.
+         * @param path                The path being scored.
+         * @param reference           The reference.
+         * @throws IOException If a workload fails.
+         */
+        void check(String name, int operations, int referenceOperations, Workload path, Workload reference) throws IOException
+        {
+            String recorded = baseline.getProperty(name);
+            double minimum = recorded == null ? 0 : Double.parseDouble(recorded) * (1 - threshold);
+            double score = 0;
+            for (int attempt = 0; attempt < MEASURE_ATTEMPTS; attempt++)
+            {
+                score = Math.max(score, opsPerSecond(operations, path) / opsPerSecond(referenceOperations, reference));
+                if (record || score >= minimum)
+                	break;
+            }
+            scores.setProperty(name, String.format(Locale.ROOT, "%.3f", score));
+
+            if (record)
+            {
+                System.out.printf("%-28s %8.2fx reference (recorded)%n", name, score);
+            }
+            else if (recorded == null)
+            {
+                fail(name + " has no baseline score; record one with -Drsa.check.record=true");
+            }
+            else
+            {
+                double expected = Double.parseDouble(recorded);
+                System.out.printf("%-28s %8.2fx reference (baseline %.2fx, %5.1f%%)%n", name, score, expected, score / expected * 100);
+                if (score < minimum)
+                {
+                    fail(name + " scored " + Math.round(score / expected * 100) + "% of its baseline, below the "
+                            + Math.round((1 - threshold) * 100) + "% threshold");
+                }
+            }
+        }
+    }
+
+    /**
+     * A piece of work to time; returns a value so the JIT cannot remove it.
+     */
+    private interface Workload
+    {
+        long run() throws IOException;
+    }
+
+    /**
+     * Times a workload after warming it up and returns its best throughput. Each round repeats the
+     * workload for at least ROUND_NANOS so short workloads are not dominated by timer noise.
+     *
+     * @param operations The number of operations one run of the workload performs.
+     * @param workload   The workload.
+     * @return The best observed operations per second.
+     * @throws IOException If the workload fails.
+     */
+    private static double opsPerSecond(int operations, Workload workload) throws IOException
+    {
+        double best = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + THROUGHPUT_ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            long elapsed;
+            long runs = 0;
+            do
+            {
+                sink += workload.run();
+                runs++;
+                elapsed = System.nanoTime() - start;
+            }
+            while (elapsed < ROUND_NANOS);
+            if (round >= WARMUP_ROUNDS)
+            	best = Math.max(best, runs * operations * 1e9 / elapsed);
+        }
+        return best;
+    }
+
+    /**
+     * Generates a key pair the way Encryption does, with primes large enough for varied moduli.
+     *
+     * @return The key pair.
+     */
+    private RSAKeyPair randomKey()
+    {
+        long primaryPrime = Encryption.generateRandomPrime(1000, 40_000);
+        long secondaryPrime;
+        do
+        {
+            secondaryPrime = Encryption.generateRandomPrime(1000, 40_000);
+        }
+        while (secondaryPrime == primaryPrime);
+        long totient = (primaryPrime - 1) * (secondaryPrime - 1);
+        long publicKey = Encryption.findPublicKey(totient);
+        return new RSAKeyPair(primaryPrime * secondaryPrime, publicKey, Encryption.calculateModInverse(publicKey, totient));
+    }
+
+    /**
+     * Generates random printable ASCII text.
+     *
+     * @param length The number of characters.
+     * @return The text.
+     */
+    private String randomText(int length)
+    {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            text[i] = (char) (32 + random.nextInt(95));
+        }
+        return new String(text);
+    }
+
+    /**
+     * Picks a uniformly random long in [0, bound).
+     *
+     * @param bound The exclusive upper bound; must be positive.
+     * @return The random value.
+     */
+    private long randomBelow(long bound)
+    {
+        return (random.nextLong() & Long.MAX_VALUE) % bound;
+    }
+
+    /**
+     * Compares one modular power result with the reference.
+     *
+     * @param path     The name of the implementation being checked.
+     * @param base     The base value.
+     * @param exponent The exponent value.
+     * @param modulus  The modulus value.
+     * @param expected The BigInteger result.
+     * @param actual   The result of the implementation.
+     */
+    private void expect(String path, long base, long exponent, long modulus, long expected, long actual)
+    {
+        if (actual != expected)
+        {
+            fail(path + "(" + base + ", " + exponent + ", " + modulus + ") = " + actual + ", expected " + expected);
+        }
+    }
+
+    /**
+     * Records a failure and prints it.
+     *
+     * @param message What went wrong.
+     */
+    private void fail(String message)
+    {
+        failures++;
+        System.out.println("FAILED: " + message);
+    }
+}
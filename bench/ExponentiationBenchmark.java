@@ -0,0 +1,80 @@
+import java.util.Random;
+
+/**
+ * Measures the cost of the constant-time exponentiation engine against the fast variable-time path.
+ *
+ * Both engines decrypt the same random ciphertext values with the same private key. Each round is
+ * timed after a warm-up so the JIT has compiled both loops, and the best round is reported to filter
+ * out GC and scheduling noise. The printed overhead is the number to weigh when choosing whether to
+ * run a deployment with -Drsa.constantTime=true.
+ *
+ * Usage: java ExponentiationBenchmark [operations per round]
+ */
+public class ExponentiationBenchmark
+{
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static volatile long sink; // Keeps the JIT from discarding the results
+
+    public static void main(String[] args)
+    {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        // Use the largest key the default prime range produces, so exponents are realistic
+        long primaryPrime = 997;
+        long secondaryPrime = 991;
+        long modulus = primaryPrime * secondaryPrime;
+        long totient = (primaryPrime - 1) * (secondaryPrime - 1);
+        long publicKey = Encryption.findPublicKey(totient);
+        long privateKey = Encryption.calculateModInverse(publicKey, totient);
+
+        Random random = new Random(42);
+        long[] ciphertext = new long[operations];
+        for (int i = 0; i < operations; i++)
+        {
+            ciphertext[i] = Encryption.fastExponentiation(32 + random.nextInt(95), publicKey, modulus);
+        }
+        ConstantTimeExponentiation constantTime = new ConstantTimeExponentiation(modulus);
+
+        long fastBest = Long.MAX_VALUE;
+        long constantBest = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            long check = 0;
+            for (long value : ciphertext)
+            {
+                check += Decryption.computeModularPower(value, privateKey, modulus);
+            }
+            long fastTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long constantCheck = 0;
+            for (long value : ciphertext)
+            {
+                constantCheck += constantTime.modPow(value, privateKey);
+            }
+            long constantTimeTaken = System.nanoTime() - start;
+
+            if (check != constantCheck)
+            {
+                throw new IllegalStateException("Engines disagree: " + check + " vs " + constantCheck);
+            }
+            sink = check;
+
+            if (round >= WARMUP_ROUNDS)
+            {
+                fastBest = Math.min(fastBest, fastTime);
+                constantBest = Math.min(constantBest, constantTimeTaken);
+            }
+        }
+
+        double fastPerOp = (double) fastBest / operations;
+        double constantPerOp = (double) constantBest / operations;
+        System.out.printf("Modulus %d, private exponent %d, %d operations per round%n", modulus, privateKey, operations);
+        System.out.printf("Fast variable-time path: %8.1f ns/op%n", fastPerOp);
+        System.out.printf("Constant-time ladder:    %8.1f ns/op%n", constantPerOp);
+        System.out.printf("Overhead:                %8.2fx%n", constantPerOp / fastPerOp);
+    }
+}
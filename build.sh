@@ -0,0 +1,164 @@
+#!/usr/bin/env bash
+#
+# Builds the command-line tools without an IDE.
+#
+#   ./build.sh            Compile, package runnable jars and create an AppCDS archive per jar
+#   ./build.sh native     Also build GraalVM native executables (needs native-image on the PATH)
+#   ./build.sh startup    Measure start-to-exit time of each launch mode and append it to build/startup.csv
+#   ./build.sh check      Run the randomized differential checks and throughput gate in bench/
+#   ./build.sh clean      Remove the build directory
+#
+# Output goes to build/: jars/ holds the runnable jars and their .jsa archives, bin/ holds
+# launchers that start each jar with its archive, and native/ holds the native executables.
+# A .jsa archive only works with the JDK that created it, so rebuild after changing JDKs.
+
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")" && pwd)"
+BUILD="$ROOT/build"
+TOOLS=(Encryption Decryption RekeyPipeline)
+STARTUP_RUNS="${STARTUP_RUNS:-20}"
+
+# Runs one tool in a scratch directory set up by prepare, taking the same code path as a real run:
+# Encryption writes a key and a ciphertext, Decryption looks its key up in the keystore, and
+# RekeyPipeline re-keys a fresh copy of a ciphertext file from one stored key to the other.
+# Usage: exercise <work dir> <tool> <command...>
+exercise()
+{
+    local work="$1"
+    local tool="$2"
+    shift 2
+    case "$tool" in
+        Encryption)
+            printf '1\n101\n103\nstartup probe\n' | (cd "$work" && "$@") > /dev/null ;;
+        Decryption)
+            (cd "$work" && "$@" "$KEY_A") > /dev/null ;;
+        RekeyPipeline)
+            cp "$work/rekey-source.txt" "$work/rekey.txt"
+            (cd "$work" && "$@" "$KEY_A" "$KEY_B" rekey.txt) > /dev/null ;;
+    esac
+}
+
+# Creates a scratch directory with two keys in the keystore and a ciphertext under the first,
+# checks that Decryption and RekeyPipeline really succeed there, and sets WORK, KEY_A and KEY_B.
+prepare()
+{
+    WORK="$(mktemp -d)"
+    local run=(java -cp "$BUILD/classes")
+    KEY_B=$(printf '1\n211\n223\nstartup probe\n' | (cd "$WORK" && "${run[@]}" Encryption) | grep -o 'Key ID: [0-9a-f]*' | cut -d' ' -f3)
+    KEY_A=$(printf '1\n101\n103\nstartup probe\n' | (cd "$WORK" && "${run[@]}" Encryption) | grep -o 'Key ID: [0-9a-f]*' | cut -d' ' -f3)
+    cp "$WORK/ciphertext.txt" "$WORK/rekey-source.txt"
+
+    if ! (cd "$WORK" && "${run[@]}" Decryption "$KEY_A") | grep -q 'Decrypted text: startup probe'; then
+        echo "Decryption does not decrypt the prepared ciphertext in $WORK" >&2
+        exit 1
+    fi
+    cp "$WORK/rekey-source.txt" "$WORK/rekey.txt"
+    if ! (cd "$WORK" && "${run[@]}" RekeyPipeline "$KEY_A" "$KEY_B" rekey.txt) | grep -q 'Re-keyed 1/1 files, 13 values'; then
+        echo "RekeyPipeline does not re-key the prepared ciphertext in $WORK" >&2
+        exit 1
+    fi
+}
+
+compile()
+{
+    rm -rf "$BUILD/classes" "$BUILD/jars" "$BUILD/bin"
+    mkdir -p "$BUILD/classes" "$BUILD/jars" "$BUILD/bin"
+    javac -encoding UTF-8 -d "$BUILD/classes" "$ROOT"/src/*.java
+}
+
+package()
+{
+    for tool in "${TOOLS[@]}"; do
+        jar --create --file "$BUILD/jars/$tool.jar" --main-class "$tool" -C "$BUILD/classes" .
+    done
+}
+
+# Records the classes each tool loads during a typical run in a dynamic AppCDS archive.
+archive()
+{
+    prepare
+    for tool in "${TOOLS[@]}"; do
+        exercise "$WORK" "$tool" java -XX:ArchiveClassesAtExit="$BUILD/jars/$tool.jsa" -jar "$BUILD/jars/$tool.jar"
+        cat > "$BUILD/bin/$tool" <<EOF
+#!/usr/bin/env bash
+exec java -XX:SharedArchiveFile="$BUILD/jars/$tool.jsa" -jar "$BUILD/jars/$tool.jar" "\$@"
+EOF
+        chmod +x "$BUILD/bin/$tool"
+    done
+    rm -rf "$WORK"
+}
+
+native()
+{
+    if ! command -v native-image > /dev/null; then
+        echo "native-image not found. Install GraalVM and put its bin directory on the PATH." >&2
+        exit 1
+    fi
+    mkdir -p "$BUILD/native"
+    # The tools use no reflection, resources or dynamic proxies, so no reachability metadata is needed
+    for tool in "${TOOLS[@]}"; do
+        native-image --no-fallback -O2 -cp "$BUILD/classes" -o "$BUILD/native/$tool" "$tool"
+    done
+}
+
+# Prints the average wall time in milliseconds of STARTUP_RUNS runs of a tool.
+# Usage: time_runs <work dir> <tool> <command...>
+time_runs()
+{
+    local start end
+    start=$(date +%s%N)
+    for ((i = 0; i < STARTUP_RUNS; i++)); do
+        exercise "$@"
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / STARTUP_RUNS / 1000000 ))
+}
+
+startup()
+{
+    [ -f "$BUILD/jars/Encryption.jsa" ] || { compile; package; archive; }
+    local csv="$BUILD/startup.csv"
+    [ -f "$csv" ] || echo "date,java,tool,jar_ms,cds_ms,native_ms" > "$csv"
+
+    local java_version
+    prepare
+    java_version="$(java -version 2>&1 | head -n 1 | tr -d ',')"
+    printf '%-14s %8s %8s %8s\n' "tool" "jar ms" "cds ms" "native ms"
+    for tool in "${TOOLS[@]}"; do
+        local plain cds native_ms="n/a"
+        plain=$(time_runs "$WORK" "$tool" java -jar "$BUILD/jars/$tool.jar")
+        cds=$(time_runs "$WORK" "$tool" "$BUILD/bin/$tool")
+        if [ -x "$BUILD/native/$tool" ]; then
+            native_ms=$(time_runs "$WORK" "$tool" "$BUILD/native/$tool")
+        fi
+        printf '%-14s %8s %8s %8s\n' "$tool" "$plain" "$cds" "$native_ms"
+        echo "$(date -u +%Y-%m-%dT%H:%M:%SZ),$java_version,$tool,$plain,$cds,$native_ms" >> "$csv"
+    done
+    rm -rf "$WORK"
+    echo "Results appended to $csv"
+}
+
+# Compiles the sources with bench/ and runs DifferentialCheck; a failed check fails the script.
+# Each path's throughput is scored against a reference measured in the same run and compared with
+# the committed scores in bench/throughput-baseline.properties. Set CHECK_THRESHOLD to change the
+# allowed drop for every path (default 0.30), or CHECK_RECORD=true to record new scores.
+check()
+{
+    rm -rf "$BUILD/check-classes"
+    mkdir -p "$BUILD/check-classes"
+    javac -encoding UTF-8 -d "$BUILD/check-classes" "$ROOT"/src/*.java "$ROOT"/bench/*.java
+    java -Drsa.check.baseline="$ROOT/bench/throughput-baseline.properties" \
+         -Drsa.check.threshold="${CHECK_THRESHOLD:-0.30}" \
+         -Drsa.check.record="${CHECK_RECORD:-false}" \
+         -cp "$BUILD/check-classes" DifferentialCheck
+}
+
+case "${1:-jar}" in
+    jar)     compile; package; archive ;;
+    native)  compile; package; archive; native ;;
+    check)   check ;;
+    startup) startup ;;
+    clean)   rm -rf "$BUILD" ;;
+    *)       echo "Usage: $0 [jar|native|startup|check|clean]" >&2; exit 2 ;;
+esac
@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Reads and writes the space-separated decimal ciphertext format used by 'ciphertext.txt'.
+ * Values are parsed straight from bytes into longs and formatted straight from longs into bytes,
+ * so no intermediate String is created for any token.
+ */
+public class CiphertextCodec
+{
+    private static final int MAX_DIGITS = 20; // Enough room for any long including the sign
+    private static final int MAX_SAFE_DIGITS = 18; // Any 18-digit number fits in a long without overflow
+
+    /**
+     * Thrown when a token in the ciphertext is not a valid decimal long.
+     */
+    public static class MalformedTokenException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int offset; // Byte offset of the start of the bad token
+
+        /**
+         * Creates an exception for the token starting at the given byte offset.
+         *
+         * @param message A description of the problem.
+         * @param offset  The byte offset of the start of the bad token.
+         */
+        public MalformedTokenException(String message, int offset)
+        {
+            super(message + " at byte offset " + offset);
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the byte offset of the start of the bad token.
+         *
+         * @return The byte offset.
+         */
+        public int getOffset()
+        {
+            return offset;
+        }
+    }
+
+    /**
+     * Parses every token in a ciphertext buffer into the given array, in a single pass.
+     *
+     * @param data   The buffer holding the ciphertext.
+     * @param start  The first byte to parse.
+     * @param end    One past the last byte to parse.
+     * @param values The array to fill; (end - start + 1) / 2 values is always enough.
+     * @return The number of values written.
+     * @throws MalformedTokenException If a token is not a valid decimal long.
+     */
+    public static int decode(byte[] data, int start, int end, long[] values) throws MalformedTokenException
+    {
+        int count = 0;
+        int pos = start;
+        while (pos < end)
+        {
+            if (isSeparator(data[pos]))
+            {
+                pos++;
+                continue;
+            }
+            pos = parseToken(data, pos, end, values, count++);
+        }
+        return count;
+    }
+
+    /**
+     * Parses every token in a ciphertext buffer in a single pass, growing the result as needed.
+     *
+     * @param data   The buffer holding the ciphertext.
+     * @param length The number of valid bytes in the buffer.
+     * @return The parsed values.
+     * @throws MalformedTokenException If a token is not a valid decimal long.
+     */
+    public static long[] decode(byte[] data, int length) throws MalformedTokenException
+    {
+        long[] values = new long[(length >> 3) + 16]; // Typical tokens take 6 or more bytes with their separator
+        int count = 0;
+        int pos = 0;
+        while (pos < length)
+        {
+            if (isSeparator(data[pos]))
+            {
+                pos++;
+                continue;
+            }
+            if (count == values.length)
+            	values = Arrays.copyOf(values, count * 2);
+            pos = parseToken(data, pos, length, values, count++);
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    /**
+     * Parses the token starting at a position and stores its value.
+     * Tokens of up to 18 digits cannot overflow, so only longer ones take the checked path.
+     *
+     * @param data   The buffer holding the ciphertext.
+     * @param pos    The position of the first byte of the token, which is not a separator.
+     * @param end    One past the last byte that may belong to the token.
+     * @param values The array to store the value in.
+     * @param index  The index to store the value at.
+     * @return The position just after the token.
+     * @throws MalformedTokenException If the token is not a valid decimal long.
+     */
+    private static int parseToken(byte[] data, int pos, int end, long[] values, int index) throws MalformedTokenException
+    {
+        int tokenStart = pos;
+        boolean negative = data[pos] == '-';
+        if (negative)
+        	pos++;
+
+        int digitStart = pos;
+        long result = 0;
+        while (pos < end)
+        {
+            int digit = data[pos] - '0';
+            if (digit < 0 || digit > 9)
+            	break;
+            result = result * 10 + digit; // May wrap past 18 digits; such tokens are re-parsed below
+            pos++;
+        }
+        if (pos < end && !isSeparator(data[pos]))
+        {
+            throw new MalformedTokenException("Invalid character '" + (char) (data[pos] & 0xFF) + "'", tokenStart);
+        }
+        if (pos == digitStart)
+        {
+            throw new MalformedTokenException("Missing digits", tokenStart);
+        }
+
+        if (pos - digitStart > MAX_SAFE_DIGITS)
+        	result = parseChecked(data, digitStart, pos, negative, tokenStart);
+        else if (negative)
+        	result = -result;
+        values[index] = result;
+        return pos;
+    }
+
+    /**
+     * Parses a run of digits that may not fit in a long, checking every step for overflow.
+     *
+     * @param data       The buffer holding the ciphertext.
+     * @param start      The position of the first digit.
+     * @param end        One past the last digit.
+     * @param negative   True if the token had a leading minus sign.
+     * @param tokenStart The position of the token, for error reporting.
+     * @return The value.
+     * @throws MalformedTokenException If the value does not fit in a long.
+     */
+    private static long parseChecked(byte[] data, int start, int end, boolean negative, int tokenStart) throws MalformedTokenException
+    {
+        // Accumulate as a negative number so Long.MIN_VALUE can be represented
+        long result = 0;
+        for (int pos = start; pos < end; pos++)
+        {
+            int digit = data[pos] - '0';
+            if (result < Long.MIN_VALUE / 10)
+            {
+                throw new MalformedTokenException("Value out of range", tokenStart);
+            }
+            result *= 10;
+            if (result < Long.MIN_VALUE + digit)
+            {
+                throw new MalformedTokenException("Value out of range", tokenStart);
+            }
+            result -= digit;
+        }
+
+        if (!negative)
+        {
+            if (result == Long.MIN_VALUE)
+            {
+                throw new MalformedTokenException("Value out of range", tokenStart);
+            }
+            result = -result;
+        }
+        return result;
+    }
+
+    /**
+     * Reads and parses a ciphertext file.
+     *
+     * @param file The file to read.
+     * @return The parsed values.
+     * @throws IOException If the file cannot be read or contains a malformed token.
+     */
+    public static long[] readFile(File file) throws IOException
+    {
+        byte[] data = Files.readAllBytes(file.toPath());
+        return decode(data, data.length);
+    }
+
+    /**
+     * Writes the decimal digits of a value into a buffer.
+     *
+     * @param value The value to format.
+     * @param dest  The buffer to write into; needs room for up to 20 bytes.
+     * @param pos   The position to start writing at.
+     * @return The position just after the last byte written.
+     */
+    public static int encode(long value, byte[] dest, int pos)
+    {
+        if (value == 0)
+        {
+            dest[pos] = '0';
+            return pos + 1;
+        }
+
+        // Work with the negative form so Long.MIN_VALUE does not overflow
+        long remaining = value < 0 ? value : -value;
+        if (value < 0)
+        	dest[pos++] = '-';
+
+        int digits = 0;
+        for (long probe = remaining; probe != 0; probe /= 10)
+        	digits++;
+
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--)
+        {
+            dest[i] = (byte) ('0' - (remaining % 10));
+            remaining /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Formats a sequence of values as a single space-separated ciphertext line.
+     *
+     * @param values The values to format.
+     * @param count  The number of values to take from the array.
+     * @return The formatted bytes, without a line terminator.
+     */
+    public static byte[] encodeLine(long[] values, int count)
+    {
+        byte[] buffer = new byte[count * (MAX_DIGITS + 1)];
+        int pos = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            	buffer[pos++] = ' ';
+            pos = encode(values[i], buffer, pos);
+        }
+        return Arrays.copyOf(buffer, pos);
+    }
+
+    /**
+     * Writes a sequence of values to a ciphertext file, replacing any existing content.
+     * The file ends with the platform line separator, matching what PrintWriter.println wrote.
+     *
+     * @param file   The file to write.
+     * @param values The values to write.
+     * @param count  The number of values to take from the array.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeFile(File file, long[] values, int count) throws IOException
+    {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+        {
+            out.write(encodeLine(values, count));
+            out.write(System.lineSeparator().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Checks whether a byte separates tokens.
+     *
+     * @param b The byte to check.
+     * @return True for space, tab, carriage return or line feed.
+     */
+    public static boolean isSeparator(byte b)
+    {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Modular exponentiation whose running time does not depend on the exponent.
+ *
+ * The plain square-and-multiply loops in Encryption and Decryption only multiply when an exponent
+ * bit is set, so their timing leaks the private key. This engine uses a Montgomery ladder instead:
+ * every exponent bit up to the bit length of the modulus costs exactly one multiplication and one
+ * squaring whether it is set or not. A private exponent is always below the modulus, so the number
+ * of steps depends only on the public modulus. Operands are swapped with bit masks rather than
+ * branches, and reductions use Montgomery arithmetic so there is no data-dependent division.
+ * An instance is bound to one modulus, so create one per key.
+ *
+ * The engine is selected per process with -Drsa.constantTime=true rather than stored with each key
+ * in the keystore. Every tool run applies exactly one private key, so choosing the mode for the run
+ * chooses it for that key without changing the keystore record format.
+ */
+public class ConstantTimeExponentiation
+{
+    /** System property that switches private-key operations to this engine when set to true. */
+    public static final String ENABLE_PROPERTY = "rsa.constantTime";
+
+    private static final long MASK_32 = 0xFFFFFFFFL;
+    private static final int EXPONENT_BITS = 63; // Every non-negative long exponent fits
+
+    private final long modulus; // Odd modulus (n), below 2^31
+    private final int ladderBits; // Bit length of the modulus, the ladder length for exponents below 2^ladderBits
+    private final long inverse; // -n^-1 mod 2^32, used by the Montgomery reduction
+    private final long rSquared; // 2^64 mod n, converts values into Montgomery form
+    private final long one; // 2^32 mod n, the Montgomery form of 1
+
+    /**
+     * Prepares the engine for a modulus.
+     *
+     * @param modulus The modulus; must be odd and between 3 and 2^31 - 1.
+     */
+    public ConstantTimeExponentiation(long modulus)
+    {
+        if (!supports(modulus))
+        {
+            throw new IllegalArgumentException("Constant-time mode needs an odd modulus below 2^31: " + modulus);
+        }
+        this.modulus = modulus;
+        this.ladderBits = 64 - Long.numberOfLeadingZeros(modulus);
+
+        // Newton's iteration doubles the correct low bits of n^-1 each step: 1, 2, 4, ..., 32
+        long x = 1;
+        for (int i = 0; i < 5; i++)
+        {
+            x = (x * (2 - modulus * x)) & MASK_32;
+        }
+        this.inverse = (-x) & MASK_32;
+
+        this.one = (1L << 32) % modulus;
+        this.rSquared = (one * one) % modulus; // one < 2^31, so the product fits
+    }
+
+    /**
+     * Checks whether a modulus can be used with this engine.
+     *
+     * @param modulus The modulus to check.
+     * @return True if the modulus is odd, at least 3 and below 2^31.
+     */
+    public static boolean supports(long modulus)
+    {
+        return modulus >= 3 && modulus < (1L << 31) && (modulus & 1) == 1;
+    }
+
+    /**
+     * Checks whether the rsa.constantTime system property asks for constant-time private-key operations.
+     * The setting applies to the whole process, which in these tools means the one private key it uses.
+     *
+     * @return True if constant-time mode is selected.
+     */
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLE_PROPERTY);
+    }
+
+    /**
+     * Returns the modulus this engine was created for.
+     *
+     * @return The modulus (n).
+     */
+    public long getModulus()
+    {
+        return modulus;
+    }
+
+    /**
+     * Computes (base^exponent) % modulus in time independent of the exponent's bits.
+     *
+     * @param base     The base value.
+     * @param exponent The exponent value; must not be negative.
+     * @return The result of (base^exponent) % modulus.
+     */
+    public long modPow(long base, long exponent)
+    {
+        if (exponent < 0)
+        {
+            throw new IllegalArgumentException("Exponent must not be negative: " + exponent);
+        }
+        long low = one; // Montgomery form of base^(exponent bits seen so far)
+        long high = montgomeryMultiply(Math.floorMod(base, modulus), rSquared); // Always low * base
+
+        // Private exponents never reach 2^ladderBits; larger public exponents run the full 63 steps
+        int bits = (exponent >>> ladderBits) == 0 ? ladderBits : EXPONENT_BITS;
+        for (int i = bits - 1; i >= 0; i--)
+        {
+            // Swap when the bit is set so the same operations run either way
+            long swap = -((exponent >>> i) & 1);
+            long diff = swap & (low ^ high);
+            low ^= diff;
+            high ^= diff;
+
+            high = montgomeryMultiply(low, high);
+            low = montgomeryMultiply(low, low);
+
+            diff = swap & (low ^ high);
+            low ^= diff;
+            high ^= diff;
+        }
+        return montgomeryMultiply(low, 1); // Leave Montgomery form
+    }
+
+    /**
+     * Computes a * b * 2^-32 mod n without division or branches.
+     *
+     * @param a A value below n.
+     * @param b A value below n.
+     * @return The reduced product, below n.
+     */
+    private long montgomeryMultiply(long a, long b)
+    {
+        long product = a * b; // Below 2^62
+        long m = ((product & MASK_32) * inverse) & MASK_32;
+        long reduced = (product + m * modulus) >>> 32; // Sum is below 2^64, read as unsigned
+        long difference = reduced - modulus;
+        return difference + (modulus & (difference >> 63)); // Add n back if the subtraction went negative
+    }
+}
@@ -1,9 +1,15 @@
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.Scanner;
 
 /**
  * A program for RSA decryption. Reads the private key and ciphertext from files,
  * decrypts the ciphertext using modular arithmetic, and outputs the plaintext.
+ * Pass a key ID as the first argument to take the private key from 'keystore.rks' instead of 'private_key.txt'.
+ * Run with -Drsa.constantTime=true to decrypt with the constant-time exponentiation engine; the
+ * choice is made per run, which is per key since a run decrypts with a single private key.
+ * Pass --segment N or --segment FIRST:LAST to decrypt only some segments of an appended file;
+ * negative numbers count back from the end, so --segment -1 decrypts the newest segment.
  */
 public class Decryption 
 {
@@ -13,31 +19,107 @@ public class Decryption
         long modulus;
         long privateKey;
 
-        // Step 1: Read the private key from the file
-        try (Scanner privateKeyReader = new Scanner(new File("private_key.txt"))) 
+        // Separate the optional segment selection from the optional key ID
+        String keyIdText = null;
+        String segmentSpec = null;
+        for (int i = 0; i < args.length; i++) 
         {
-            modulus = privateKeyReader.nextLong(); // Read modulus (n)
-            privateKey = privateKeyReader.nextLong(); // Read private key (d)
-        } 
-        catch (FileNotFoundException e) 
+            if (args[i].equals("--segment")) 
+            {
+                if (i + 1 == args.length) 
+                {
+                    System.out.println("Missing segment after --segment. Use --segment N or --segment FIRST:LAST.");
+                    return;
+                }
+                segmentSpec = args[++i];
+            } 
+            else 
+            	keyIdText = args[i];
+        }
+
+        // Step 1: Read the private key, from the keystore when a key ID is given and from the file otherwise
+        if (keyIdText != null) 
         {
-            System.out.println("Private key file not found. Ensure 'private_key.txt' exists.");
-            return;
+            RSAKeyPair keyPair;
+            try (KeyStoreFile keyStore = KeyStoreFile.openReadOnly(new File("keystore.rks"))) 
+            {
+                keyPair = keyStore.find(RSAKeyPair.parseKeyId(keyIdText));
+            } 
+            catch (NumberFormatException e) 
+            {
+                System.out.println("Invalid key ID '" + keyIdText + "'. Expected up to 16 hexadecimal digits.");
+                return;
+            } 
+            catch (NoSuchFileException e) 
+            {
+                System.out.println("Keystore not found. Ensure 'keystore.rks' exists.");
+                return;
+            } 
+            catch (IOException e) 
+            {
+                System.out.println("Error reading keystore: " + e.getMessage());
+                return;
+            }
+            if (keyPair == null) 
+            {
+                System.out.println("No key with ID " + keyIdText + " in 'keystore.rks'.");
+                return;
+            }
+            modulus = keyPair.getModulus();
+            privateKey = keyPair.getPrivateKey();
         } 
-        catch (IOException e) 
+        else 
         {
-            System.out.println("Error reading private key file: " + e.getMessage());
-            return;
+            try (Scanner privateKeyReader = new Scanner(new File("private_key.txt"))) 
+            {
+                modulus = privateKeyReader.nextLong(); // Read modulus (n)
+                privateKey = privateKeyReader.nextLong(); // Read private key (d)
+            } 
+            catch (FileNotFoundException e) 
+            {
+                System.out.println("Private key file not found. Ensure 'private_key.txt' exists.");
+                return;
+            } 
+            catch (IOException e) 
+            {
+                System.out.println("Error reading private key file: " + e.getMessage());
+                return;
+            }
         }
 
-        // Step 2: Read the ciphertext from the file
-        String[] encryptedValues;
-        try (BufferedReader ciphertextReader = new BufferedReader(new FileReader("ciphertext.txt"))) 
+        // Step 2: Read and parse the ciphertext from the file, or only the selected segments
+        long[] encryptedValues;
+        try 
+        {
+            File ciphertextFile = new File("ciphertext.txt");
+            if (segmentSpec == null) 
+            {
+                encryptedValues = CiphertextCodec.readFile(ciphertextFile);
+            } 
+            else 
+            {
+                if (!ciphertextFile.exists()) 
+                {
+                    throw new NoSuchFileException(ciphertextFile.getPath());
+                }
+                SegmentIndex index = SegmentIndex.load(ciphertextFile);
+                int separator = segmentSpec.indexOf(':');
+                int first = resolveSegment(separator < 0 ? segmentSpec : segmentSpec.substring(0, separator), index.size());
+                int last = separator < 0 ? first : resolveSegment(segmentSpec.substring(separator + 1), index.size());
+                encryptedValues = index.readSegments(first, last);
+            }
+        } 
+        catch (IllegalArgumentException | IndexOutOfBoundsException e) 
+        {
+            System.out.println("Invalid segment '" + segmentSpec + "': " + e.getMessage());
+            return;
+        } 
+        catch (CiphertextCodec.MalformedTokenException e) 
         {
-            String ciphertext = ciphertextReader.readLine(); // Read the entire ciphertext as a single line
-            encryptedValues = ciphertext.split(" "); // Split the ciphertext into individual encrypted values using spaces
+            System.out.println("Error parsing encrypted value: " + e.getMessage());
+            return;
         } 
-        catch (FileNotFoundException e) 
+        catch (NoSuchFileException e) 
         {
             System.out.println("Ciphertext file not found. Ensure 'ciphertext.txt' exists.");
             return;
@@ -48,30 +130,44 @@ public class Decryption
             return;
         }
 
-        // Step 3: Decrypt the ciphertext
-        StringBuilder decryptedText = new StringBuilder(); // Store the decrypted text
-        for (String value : encryptedValues) 
+        // Step 3: Decrypt the ciphertext, with the constant-time engine if it was selected
+        ConstantTimeExponentiation constantTime = null;
+        if (ConstantTimeExponentiation.isEnabled()) 
         {
-            if (!value.isEmpty()) 
-            { // Ensure value is not empty
-                try 
-                {
-                    long encryptedValue = Long.parseLong(value); // Parse the encrypted value from the string
-                    long decryptedCharacter = computeModularPower(encryptedValue, privateKey, modulus); // Decrypt using modular exponentiation
-                    decryptedText.append((char) decryptedCharacter); // Convert the decrypted value to a character and append to the result
-                } 
-                catch (NumberFormatException e) 
-                {
-                    System.out.println("Error parsing encrypted value: " + e.getMessage());
-                    return;
-                }
+            if (!ConstantTimeExponentiation.supports(modulus)) 
+            {
+                System.out.println("Constant-time mode needs an odd modulus below 2^31; n = " + modulus + " is not supported.");
+                return;
             }
+            constantTime = new ConstantTimeExponentiation(modulus);
+        }
+
+        StringBuilder decryptedText = new StringBuilder(encryptedValues.length); // Store the decrypted text
+        for (long encryptedValue : encryptedValues) 
+        {
+            long decryptedCharacter = constantTime != null
+                    ? constantTime.modPow(encryptedValue, privateKey)
+                    : computeModularPower(encryptedValue, privateKey, modulus); // Decrypt using modular exponentiation
+            decryptedText.append((char) decryptedCharacter); // Convert the decrypted value to a character and append to the result
         }
 
         // Step 4: Output the decrypted text
         System.out.println("Decrypted text: " + decryptedText.toString());
     }
 
+    /**
+     * Turns a segment number from the command line into an index, counting negative numbers from the end.
+     *
+     * @param text  The segment number as typed.
+     * @param count The number of segments in the file.
+     * @return The segment index, counting from 0.
+     */
+    private static int resolveSegment(String text, int count) 
+    {
+        int segment = Integer.parseInt(text.trim());
+        return segment < 0 ? count + segment : segment;
+    }
+
     /**
      * Performs modular exponentiation using repeated squaring.
      * Computes (base^exponent) % mod without overflow.
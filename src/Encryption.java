@@ -5,6 +5,8 @@ import java.util.Scanner;
 /**
  * A program for RSA encryption. Allows users to input prime numbers or generate them randomly,
  * computes RSA keys, encrypts plaintext, and saves the results to files.
+ * Run with --append to encrypt more text under the existing public key and add it to
+ * 'ciphertext.txt' as a new segment instead of starting over.
  */
 public class Encryption 
 {
@@ -12,6 +14,12 @@ public class Encryption
     public static void main(String[] args) 
     {
         Scanner scanner = new Scanner(System.in);
+        if (args.length > 0 && args[0].equals("--append")) 
+        {
+            appendCiphertext(scanner);
+            return;
+        }
+
         long primaryPrime = 0;
         long secondaryPrime = 0;
 
@@ -21,6 +29,9 @@ public class Encryption
 
         if (choice == 1) 
         {
+            boolean primaryValid;
+            boolean secondaryValid;
+
             // Manual input: Validate the first prime number
             do 
             {
@@ -31,12 +42,13 @@ public class Encryption
                     scanner.next();
                 }
                 primaryPrime = scanner.nextLong();
-                if (!checkPrime(primaryPrime)) 
+                primaryValid = checkPrime(primaryPrime);
+                if (!primaryValid) 
                 {
                     System.out.println("The number " + primaryPrime + " is not prime. Try a different value.");
                 }
             } 
-            while (!checkPrime(primaryPrime));
+            while (!primaryValid);
 
             // Manual input: Validate the second prime number
             do 
@@ -48,7 +60,8 @@ public class Encryption
                     scanner.next();
                 }
                 secondaryPrime = scanner.nextLong();
-                if (!checkPrime(secondaryPrime)) 
+                secondaryValid = checkPrime(secondaryPrime);
+                if (!secondaryValid) 
                 {
                     System.out.println("The number " + secondaryPrime + " is not prime. Try a different value.");
                 }
@@ -57,7 +70,7 @@ public class Encryption
                     System.out.println("The second prime cannot be the same as the first prime (" + primaryPrime + ").");
                 }
             } 
-            while (!checkPrime(secondaryPrime) || secondaryPrime == primaryPrime);
+            while (!secondaryValid || secondaryPrime == primaryPrime);
 
         } 
         else if (choice == 2) 
@@ -116,6 +129,19 @@ public class Encryption
             return;
         }
 
+        // Add the key pair to the keystore so earlier keys stay available after the files are overwritten
+        RSAKeyPair keyPair = new RSAKeyPair(modulus, publicKey, privateKey);
+        try (KeyStoreFile keyStore = KeyStoreFile.open(new File("keystore.rks"))) 
+        {
+            keyStore.append(keyPair);
+        } 
+        catch (IOException e) 
+        {
+            System.out.println("Error adding key to keystore: " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Key ID: " + RSAKeyPair.formatKeyId(keyPair.getKeyId()));
         System.out.println("Public Key: (" + modulus + ", " + publicKey + ")");
         System.out.println("Private Key: (" + modulus + ", " + privateKey + ")");
 
@@ -125,23 +151,14 @@ public class Encryption
         String plaintext = scanner.nextLine();
 
         // Encrypt the plaintext
-        StringBuilder encryptedData = new StringBuilder();
-        for (char ch : plaintext.toCharArray()) 
-        {
-            if (ch < 32 || ch > 126) 
-            { // Ensure character is valid ASCII
-                System.out.println("Unsupported character '" + ch + "' detected. Only ASCII characters are supported.");
-                return;
-            }
-            int asciiValue = ch; // Convert character to ASCII
-            long encryptedValue = fastExponentiation(asciiValue, publicKey, modulus);
-            encryptedData.append(encryptedValue).append(" "); // Append encrypted value with space delimiter
-        }
+        long[] encryptedData = encryptText(plaintext, publicKey, modulus);
+        if (encryptedData == null) 
+        	return;
 
-        // Save the ciphertext to a file
-        try (PrintWriter cipherFile = new PrintWriter("ciphertext.txt")) 
+        // Save the ciphertext to a file as space-separated values
+        try 
         {
-            cipherFile.println(encryptedData.toString().trim());
+            SegmentIndex.rewrite(new File("ciphertext.txt"), encryptedData, encryptedData.length);
         } 
         catch (IOException e) 
         {
@@ -152,14 +169,82 @@ public class Encryption
         System.out.println("Encryption completed. Ciphertext saved to 'ciphertext.txt'.");
     }
 
+    /**
+     * Encrypts more text under the key in 'public_key.txt' and appends it to 'ciphertext.txt' as a new segment.
+     *
+     * @param scanner The scanner reading user input.
+     */
+    private static void appendCiphertext(Scanner scanner) 
+    {
+        long modulus;
+        long publicKey;
+        try (Scanner publicKeyReader = new Scanner(new File("public_key.txt"))) 
+        {
+            modulus = publicKeyReader.nextLong(); // Read modulus (n)
+            publicKey = publicKeyReader.nextLong(); // Read public key (e)
+        } 
+        catch (FileNotFoundException e) 
+        {
+            System.out.println("Public key file not found. Run without --append first to create a key.");
+            return;
+        }
+
+        System.out.print("Enter the text to append: ");
+        String plaintext = scanner.nextLine();
+        long[] encryptedData = encryptText(plaintext, publicKey, modulus);
+        if (encryptedData == null) 
+        	return;
+
+        try 
+        {
+            int segment = SegmentIndex.appendSegment(new File("ciphertext.txt"), encryptedData, encryptedData.length);
+            System.out.println("Encryption completed. Appended segment " + segment + " to 'ciphertext.txt'.");
+        } 
+        catch (IOException e) 
+        {
+            System.out.println("Error appending ciphertext: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encrypts text one ASCII character at a time.
+     *
+     * @param plaintext The text to encrypt.
+     * @param publicKey The public exponent (e).
+     * @param modulus   The modulus (n).
+     * @return The encrypted values, or null if the text contains an unsupported character.
+     */
+    public static long[] encryptText(String plaintext, long publicKey, long modulus) 
+    {
+        long[] encryptedData = new long[plaintext.length()];
+        for (int i = 0; i < plaintext.length(); i++) 
+        {
+            char ch = plaintext.charAt(i);
+            if (ch < 32 || ch > 126) 
+            { // Ensure character is valid ASCII
+                System.out.println("Unsupported character '" + ch + "' detected. Only ASCII characters are supported.");
+                return null;
+            }
+            int asciiValue = ch; // Convert character to ASCII
+            encryptedData[i] = fastExponentiation(asciiValue, publicKey, modulus);
+        }
+        return encryptedData;
+    }
+
     /**
      * Checks if a number is prime.
+     * Numbers covered by an already built shared sieve are a single lookup; others use trial division,
+     * which costs microseconds for a single check and so is not worth building a sieve for.
      *
      * @param num The number to check.
      * @return True if the number is prime, false otherwise.
      */
     public static boolean checkPrime(long num) 
     {
+        PrimeSieve sieve = PrimeSieve.current();
+        if (sieve != null && sieve.covers(num)) 
+        	return sieve.isPrime(num);
+
         if (num <= 1) 
         	return false; // Numbers ≤ 1 are not prime
         if (num <= 3) 
@@ -186,6 +271,10 @@ public class Encryption
     public static long generateRandomPrime(int min, int max) 
     {
         Random random = new Random();
+        PrimeSieve sieve = PrimeSieve.shared(max); // Grown only as far as this range needs
+        if (sieve != null) 
+        	return sieve.randomPrime(min, max, random); // Pick directly from the primes in range
+
         long option;
         do 
         {
@@ -0,0 +1,289 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single file holding many RSA key pairs, indexed by key ID.
+ *
+ * The file starts with a header and a fixed table of hash buckets. Each bucket holds the offset
+ * of the newest record in its chain, and every record points to the previous head of its bucket.
+ * Lookups read the memory-mapped file directly, so finding a key costs a bucket read plus a
+ * short chain walk. Appends take an exclusive file lock, write and force the new record at the
+ * end of the file, and only then publish it by overwriting the 8-byte bucket head. Readers in
+ * other processes therefore never see a partially written record and need no lock; tools that only
+ * look keys up use openReadOnly, which needs no write permission and never blocks on an appender.
+ */
+public class KeyStoreFile implements Closeable
+{
+    /** Bucket count used when a new keystore is created without one. */
+    public static final int DEFAULT_BUCKETS = 4096;
+
+    private static final int MAGIC = 0x52534B53; // "RSKS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // Magic, version, bucket count, reserved
+    private static final int RECORD_SIZE = 40; // Key ID, modulus, public key, private key, next offset
+
+    private final FileChannel channel;
+    private final boolean writable; // False when opened with openReadOnly
+    private final int bucketCount;
+    private volatile MappedByteBuffer mapped; // Read-only view of the file, remapped when it grows
+
+    /**
+     * Opens a keystore file, creating it with the default bucket count if it does not exist.
+     *
+     * @param file The keystore file.
+     * @return The opened keystore.
+     * @throws IOException If the file cannot be opened or is not a keystore.
+     */
+    public static KeyStoreFile open(File file) throws IOException
+    {
+        return open(file, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Opens an existing keystore file for lookups only. No file is created and no lock is taken,
+     * so this works without write permission and while another process is appending.
+     *
+     * @param file The keystore file.
+     * @return The opened keystore; append is not allowed on it.
+     * @throws NoSuchFileException If the file does not exist.
+     * @throws IOException         If the file cannot be opened or is not a keystore.
+     */
+    public static KeyStoreFile openReadOnly(File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            return new KeyStoreFile(channel, false, 0);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a keystore file, creating it with the given bucket count if it does not exist.
+     * The bucket count of an existing file is kept.
+     *
+     * @param file        The keystore file.
+     * @param bucketCount The number of buckets for a new file; more buckets mean shorter chains.
+     * @return The opened keystore.
+     * @throws IOException If the file cannot be opened or is not a keystore.
+     */
+    public static KeyStoreFile open(File file, int bucketCount) throws IOException
+    {
+        if (bucketCount < 1)
+        {
+            throw new IllegalArgumentException("Bucket count must be positive: " + bucketCount);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try
+        {
+            return new KeyStoreFile(channel, true, bucketCount);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads or writes the header and maps the file.
+     *
+     * @param channel     The open channel to the file.
+     * @param writable    True if the channel was opened for writing and an empty file should get a header.
+     * @param bucketCount The number of buckets to use if the file is empty.
+     * @throws IOException If the file cannot be read or is not a keystore.
+     */
+    private KeyStoreFile(FileChannel channel, boolean writable, int bucketCount) throws IOException
+    {
+        this.channel = channel;
+        this.writable = writable;
+
+        if (writable)
+        {
+            // Another process may be creating the file at the same time, so check and write under the lock
+            FileLock lock = channel.lock();
+            try
+            {
+                if (channel.size() == 0)
+                {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + bucketCount * 8);
+                    header.putInt(MAGIC).putInt(VERSION).putInt(bucketCount).putInt(0);
+                    header.rewind(); // Write the empty bucket table too, not just the fields above
+                    writeFully(header, 0);
+                    channel.force(true);
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC)
+        {
+            throw new IOException("Not a keystore file");
+        }
+        if (header.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported keystore version " + header.getInt(4));
+        }
+        this.bucketCount = header.getInt(8);
+        if (this.bucketCount < 1 || channel.size() < HEADER_SIZE + (long) this.bucketCount * 8)
+        {
+            throw new IOException("Keystore header is corrupt");
+        }
+        remap();
+    }
+
+    /**
+     * Looks up a key pair by its ID.
+     *
+     * @param keyId The key ID.
+     * @return The key pair, or null if no pair has that ID.
+     * @throws IOException If the file has grown and cannot be remapped, or a chain is corrupt.
+     */
+    public RSAKeyPair find(long keyId) throws IOException
+    {
+        MappedByteBuffer view = mapped;
+        long firstRecord = HEADER_SIZE + (long) bucketCount * 8;
+        long steps = 0;
+        long offset = view.getLong(bucketPosition(keyId));
+        while (offset != 0)
+        {
+            if (offset + RECORD_SIZE > view.capacity())
+            {
+                view = remap(); // Another process appended since we last mapped the file
+            }
+            // A valid offset points at a whole record, and a chain visits each record at most once
+            if (offset < firstRecord || (offset - firstRecord) % RECORD_SIZE != 0 || offset + RECORD_SIZE > view.capacity()
+                    || ++steps > (view.capacity() - firstRecord) / RECORD_SIZE)
+            {
+                throw new IOException("Keystore is corrupt");
+            }
+            int record = (int) offset;
+            if (view.getLong(record) == keyId)
+            {
+                return new RSAKeyPair(keyId, view.getLong(record + 8), view.getLong(record + 16), view.getLong(record + 24));
+            }
+            offset = view.getLong(record + 32);
+        }
+        return null;
+    }
+
+    /**
+     * Appends a key pair unless one with the same ID is already stored.
+     *
+     * @param pair The key pair to store.
+     * @return True if the pair was added, false if its ID was already present.
+     * @throws IOException If the file cannot be written or was opened with openReadOnly.
+     */
+    public synchronized boolean append(RSAKeyPair pair) throws IOException
+    {
+        if (!writable)
+        {
+            throw new IOException("Keystore was opened read-only");
+        }
+        FileLock lock = channel.lock();
+        try
+        {
+            if (find(pair.getKeyId()) != null)
+            	return false;
+
+            long end = channel.size();
+            if (end + RECORD_SIZE > Integer.MAX_VALUE)
+            {
+                throw new IOException("Keystore is full");
+            }
+            int bucket = bucketPosition(pair.getKeyId());
+            ByteBuffer head = ByteBuffer.allocate(8);
+            channel.read(head, bucket);
+
+            // Write the record first; nothing points at it until the bucket head is replaced
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.putLong(pair.getKeyId()).putLong(pair.getModulus()).putLong(pair.getPublicKey())
+                    .putLong(pair.getPrivateKey()).putLong(head.getLong(0));
+            record.flip();
+            writeFully(record, end);
+            channel.force(false);
+
+            // Publish it with a single aligned 8-byte write
+            head.clear();
+            head.putLong(0, end);
+            writeFully(head, bucket);
+            channel.force(false);
+
+            remap();
+            return true;
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns the number of buckets in the index.
+     *
+     * @return The bucket count.
+     */
+    public int getBucketCount()
+    {
+        return bucketCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Finds the file position of the bucket head for a key ID.
+     *
+     * @param keyId The key ID.
+     * @return The position of the bucket head.
+     */
+    private int bucketPosition(long keyId)
+    {
+        int bucket = Math.floorMod(Long.hashCode(keyId), bucketCount);
+        return HEADER_SIZE + bucket * 8;
+    }
+
+    /**
+     * Maps the whole file as it currently is.
+     *
+     * @return The new mapping.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private MappedByteBuffer remap() throws IOException
+    {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return mapped;
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer at a position.
+     *
+     * @param buffer   The bytes to write.
+     * @param position The file position to write at.
+     * @throws IOException If the write fails.
+     */
+    private void writeFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A bit-packed sieve of Eratosthenes covering every number up to a fixed limit.
+ * Once built, primality checks are a single bit lookup and random primes in a range
+ * are picked by indexing into a sorted array of primes. Instances are immutable and
+ * can be shared between threads.
+ *
+ * The process-wide sieve is built only as large as callers ask for, starting at 1024 and
+ * doubling when a larger range is needed, so a run that only picks 3-digit primes never
+ * pays for a large sieve.
+ */
+public class PrimeSieve
+{
+    /** System property that caps how far the shared sieve may grow. */
+    public static final String LIMIT_PROPERTY = "rsa.sieve.limit";
+
+    private static final int DEFAULT_LIMIT = 1 << 20; // About 64 KB of bits and 330 KB of primes at most
+    private static final int MIN_LIMIT = 1 << 10; // Smallest shared sieve; builds in microseconds
+    private static final int SEGMENT_ODDS = 1 << 15; // Odd numbers sieved per segment, sized to stay in cache
+
+    private final int limit; // Largest number covered by the sieve
+    private final long[] composite; // Bit i set when the odd number 2 * i + 1 is composite
+    private final int[] primes; // Every prime up to the limit in ascending order
+
+    /**
+     * Builds a sieve covering every number from 0 up to and including the limit.
+     *
+     * @param limit The largest number to cover; memory use is about limit / 16 bytes plus the primes array.
+     */
+    public PrimeSieve(int limit)
+    {
+        if (limit < 2 || limit == Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Sieve limit must be between 2 and " + (Integer.MAX_VALUE - 1) + ": " + limit);
+        }
+        this.limit = limit;
+
+        int oddCount = (limit + 1) / 2; // Odd numbers 1, 3, ..., up to the limit
+        composite = new long[(oddCount + 63) >>> 6];
+        composite[0] |= 1L; // 1 is not prime
+
+        int[] basePrimes = smallOddPrimes((int) Math.sqrt(limit) + 1);
+
+        // Sieve the odd numbers one segment at a time so the working bits stay in cache
+        for (int segmentStart = 0; segmentStart < oddCount; segmentStart += SEGMENT_ODDS)
+        {
+            int segmentEnd = Math.min(segmentStart + SEGMENT_ODDS, oddCount);
+            long low = 2L * segmentStart + 1;
+            long high = 2L * (segmentEnd - 1) + 1;
+            for (int p : basePrimes)
+            {
+                long square = (long) p * p;
+                if (square > high)
+                	break;
+                // First odd multiple of p in the segment, never below p squared
+                long first = Math.max(square, (low + p - 1) / p * p);
+                if ((first & 1) == 0)
+                	first += p;
+                for (long multiple = first; multiple <= high; multiple += 2L * p)
+                {
+                    int index = (int) (multiple >>> 1);
+                    composite[index >>> 6] |= 1L << index;
+                }
+            }
+        }
+
+        // Collect the primes so random selection is a single index
+        int count = 1; // Counts 2
+        for (int i = 1; i < oddCount; i++)
+        {
+            if ((composite[i >>> 6] & (1L << i)) == 0)
+            	count++;
+        }
+        primes = new int[count];
+        primes[0] = 2;
+        int next = 1;
+        for (int i = 1; i < oddCount; i++)
+        {
+            if ((composite[i >>> 6] & (1L << i)) == 0)
+            	primes[next++] = 2 * i + 1;
+        }
+    }
+
+    private static volatile PrimeSieve sharedSieve; // Largest shared sieve built so far, or null
+
+    /**
+     * Returns the shared sieve grown to cover a number, building or enlarging it if needed.
+     * The sieve never grows past the rsa.sieve.limit system property, or 2^20 when unset.
+     *
+     * @param upTo The largest number the caller needs answers for.
+     * @return A sieve covering upTo, or null if upTo is beyond the configured limit.
+     */
+    public static PrimeSieve shared(long upTo)
+    {
+        PrimeSieve sieve = sharedSieve;
+        if (sieve != null && sieve.covers(upTo))
+        	return sieve;
+        int maxLimit = maxLimit();
+        if (upTo > maxLimit)
+        	return null;
+
+        synchronized (PrimeSieve.class)
+        {
+            sieve = sharedSieve;
+            if (sieve != null && sieve.covers(upTo))
+            	return sieve;
+            long limit = MIN_LIMIT;
+            while (limit < upTo)
+            	limit <<= 1;
+            sieve = new PrimeSieve((int) Math.min(limit, maxLimit));
+            sharedSieve = sieve;
+            return sieve;
+        }
+    }
+
+    /**
+     * Returns the shared sieve as it is now, without building anything.
+     *
+     * @return The shared sieve, or null if nothing has asked for one yet.
+     */
+    public static PrimeSieve current()
+    {
+        return sharedSieve;
+    }
+
+    /**
+     * Returns the largest limit the shared sieve may grow to.
+     *
+     * @return The validated value of the rsa.sieve.limit system property, or 2^20.
+     */
+    public static int maxLimit()
+    {
+        return Limit.MAX;
+    }
+
+    /**
+     * Reads the configured limit once; the JVM guarantees this runs exactly once.
+     */
+    private static class Limit
+    {
+        static final int MAX = readLimitProperty();
+
+        /**
+         * Parses the rsa.sieve.limit system property, falling back to the default when it is unusable.
+         *
+         * @return The limit to use.
+         */
+        private static int readLimitProperty()
+        {
+            String text = System.getProperty(LIMIT_PROPERTY);
+            if (text == null)
+            	return DEFAULT_LIMIT;
+            try
+            {
+                int limit = Integer.parseInt(text.trim());
+                if (limit >= 2 && limit < Integer.MAX_VALUE)
+                	return limit;
+            }
+            catch (NumberFormatException e)
+            {
+                // Fall through to the warning below
+            }
+            System.err.println("Ignoring invalid " + LIMIT_PROPERTY + " '" + text + "'; using " + DEFAULT_LIMIT + ".");
+            return DEFAULT_LIMIT;
+        }
+    }
+
+    /**
+     * Returns the largest number covered by the sieve.
+     *
+     * @return The limit.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Checks whether the sieve can answer for a number.
+     *
+     * @param num The number to check.
+     * @return True if the number is at most the limit.
+     */
+    public boolean covers(long num)
+    {
+        return num <= limit;
+    }
+
+    /**
+     * Checks if a covered number is prime.
+     *
+     * @param num The number to check; must be at most the limit.
+     * @return True if the number is prime, false otherwise.
+     */
+    public boolean isPrime(long num)
+    {
+        if (num > limit)
+        {
+            throw new IllegalArgumentException("Number " + num + " is beyond the sieve limit " + limit);
+        }
+        if (num < 2)
+        	return false;
+        if ((num & 1) == 0)
+        	return num == 2;
+        int index = (int) (num >>> 1);
+        return (composite[index >>> 6] & (1L << index)) == 0;
+    }
+
+    /**
+     * Picks a prime uniformly at random from a range.
+     *
+     * @param min    The minimum value for the prime.
+     * @param max    The maximum value for the prime; must be at most the limit.
+     * @param random The source of randomness.
+     * @return A randomly chosen prime between min and max inclusive.
+     */
+    public long randomPrime(long min, long max, Random random)
+    {
+        if (max > limit)
+        {
+            throw new IllegalArgumentException("Range maximum " + max + " is beyond the sieve limit " + limit);
+        }
+        int from = indexOfFirstAtLeast(min);
+        int to = indexOfFirstAtLeast(max + 1);
+        if (from >= to)
+        {
+            throw new IllegalArgumentException("No prime between " + min + " and " + max);
+        }
+        return primes[from + random.nextInt(to - from)];
+    }
+
+    /**
+     * Finds the index of the first prime that is at least the given value.
+     *
+     * @param value The lower bound.
+     * @return The index, or the number of primes if every prime is smaller.
+     */
+    private int indexOfFirstAtLeast(long value)
+    {
+        if (value <= 2)
+        	return 0;
+        if (value > limit)
+        	return primes.length;
+        int index = Arrays.binarySearch(primes, (int) value);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Finds the odd primes up to a small bound with a plain sieve; used to seed the segments.
+     *
+     * @param bound The largest number to consider.
+     * @return The odd primes up to the bound in ascending order.
+     */
+    private static int[] smallOddPrimes(int bound)
+    {
+        boolean[] marked = new boolean[bound + 1];
+        int[] found = new int[bound + 1];
+        int count = 0;
+        for (int i = 3; i <= bound; i += 2)
+        {
+            if (marked[i])
+            	continue;
+            found[count++] = i;
+            for (long j = (long) i * i; j <= bound; j += 2L * i)
+            	marked[(int) j] = true;
+        }
+        return Arrays.copyOf(found, count);
+    }
+}
@@ -3,6 +3,7 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.Scanner;
 
 /**
@@ -81,42 +82,32 @@ public class RSADecryptionGUI extends JFrame
                     return;
                 }
 
-                // Step 2: Read the ciphertext from a file
-                String ciphertext;
-                try (BufferedReader cipherReader = new BufferedReader(new FileReader("ciphertext.txt"))) 
+                // Step 2: Read and parse the ciphertext from a file
+                long[] encryptedValues;
+                try 
                 {
-                    ciphertext = cipherReader.readLine(); // Read the entire ciphertext as a single line
+                    encryptedValues = CiphertextCodec.readFile(new File("ciphertext.txt"));
                 } 
-                catch (FileNotFoundException ex) 
+                catch (NoSuchFileException ex) 
                 {
                     feedbackLabel.setText("Status: Ciphertext file not found.");
                     return;
+                } 
+                catch (CiphertextCodec.MalformedTokenException ex) 
+                {
+                    feedbackLabel.setText("Status: Error parsing ciphertext values (byte offset " + ex.getOffset() + ").");
+                    return;
                 }
 
-                // Step 3: Split the ciphertext into individual encrypted values
-                String[] encryptedValues = ciphertext.split(" ");
-                StringBuilder decryptedTextBuilder = new StringBuilder();
-
-                // Step 4: Decrypt each encrypted value
-                for (String value : encryptedValues) 
+                // Step 3: Decrypt each encrypted value
+                StringBuilder decryptedTextBuilder = new StringBuilder(encryptedValues.length);
+                for (long encryptedValue : encryptedValues) 
                 {
-                    if (!value.isEmpty()) 
-                    { // Ensure the value is not empty
-                        try 
-                        {
-                            long encryptedValue = Long.parseLong(value); // Parse the encrypted value
-                            long decryptedChar = modPower(encryptedValue, privateKey, modulus); // Decrypt using modular exponentiation
-                            decryptedTextBuilder.append((char) decryptedChar); // Convert to character
-                        } 
-                        catch (NumberFormatException ex) 
-                        {
-                            feedbackLabel.setText("Status: Error parsing ciphertext values.");
-                            return;
-                        }
-                    }
+                    long decryptedChar = Decryption.computeModularPower(encryptedValue, privateKey, modulus); // Decrypt using modular exponentiation
+                    decryptedTextBuilder.append((char) decryptedChar); // Convert to character
                 }
 
-                // Step 5: Display the decrypted text in the GUI
+                // Step 4: Display the decrypted text in the GUI
                 decryptedTextArea.setText(decryptedTextBuilder.toString());
                 feedbackLabel.setText("Status: Decryption successful.");
             } 
@@ -126,32 +117,4 @@ public class RSADecryptionGUI extends JFrame
             }
         }
     }
-
-    /**
-     * Performs modular exponentiation using repeated squaring.
-     * Computes (base^exponent) % mod without overflow.
-     *
-     * @param base     The base value to be raised to the power.
-     * @param exponent The exponent value.
-     * @param mod      The modulus value.
-     * @return The result of (base^exponent) % mod.
-     */
-    private long modPower(long base, long exponent, long mod) 
-    {
-        long result = 1; // Initialize the result
-        base %= mod; // Reduce base modulo mod to ensure it's within range
-
-        while (exponent > 0) 
-        {
-            // If the current bit of the exponent is 1, multiply the result by the base
-            if ((exponent & 1) == 1) 
-            {
-                result = (result * base) % mod;
-            }
-            exponent >>= 1; // Right shift the exponent (equivalent to dividing it by 2)
-            base = (base * base) % mod; // Square the base and reduce modulo mod
-        }
-
-        return result;
-    }
 }
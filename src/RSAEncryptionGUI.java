@@ -5,7 +5,6 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
-import java.util.Random;
 
 /**
  * A GUI-based program for RSA encryption. 
@@ -106,10 +105,10 @@ public class RSAEncryptionGUI extends JFrame
                 // If random primes option is selected
                 if (randomPrimesCheckBox.isSelected()) 
                 {
-                    prime1 = generateRandomPrime(100, 1000);
+                    prime1 = Encryption.generateRandomPrime(100, 1000);
                     do 
                     {
-                        prime2 = generateRandomPrime(100, 1000);
+                        prime2 = Encryption.generateRandomPrime(100, 1000);
                     } 
                     while (prime2 == prime1);
 
@@ -121,7 +120,7 @@ public class RSAEncryptionGUI extends JFrame
                     prime1 = Long.parseLong(primeField1.getText());
                     prime2 = Long.parseLong(primeField2.getText());
 
-                    if (!isPrime(prime1) || !isPrime(prime2) || prime1 == prime2) 
+                    if (!Encryption.checkPrime(prime1) || !Encryption.checkPrime(prime2) || prime1 == prime2) 
                     {
                         feedbackLabel.setText("Status: Invalid primes. Ensure they are distinct and prime.");
                         return;
@@ -152,9 +151,17 @@ public class RSAEncryptionGUI extends JFrame
                     privateWriter.println(privateKey);
                 }
 
+                // Add the key pair to the keystore so earlier keys stay available after the files are overwritten
+                RSAKeyPair keyPair = new RSAKeyPair(modulus, publicKey, privateKey);
+                try (KeyStoreFile keyStore = KeyStoreFile.open(new File("keystore.rks"))) 
+                {
+                    keyStore.append(keyPair);
+                }
+
                 // Encrypt plaintext
                 String plainText = plainTextArea.getText();
-                StringBuilder cipherBuilder = new StringBuilder();
+                long[] cipherValues = new long[plainText.length()];
+                int cipherCount = 0;
                 for (char character : plainText.toCharArray()) 
                 {
                     if (character < 32 || character > 126) 
@@ -162,17 +169,13 @@ public class RSAEncryptionGUI extends JFrame
                         feedbackLabel.setText("Status: Unsupported character '" + character + "'. Only ASCII is supported.");
                         return;
                     }
-                    long cipherValue = modPower(character, publicKey, modulus);
-                    cipherBuilder.append(cipherValue).append(" ");
+                    cipherValues[cipherCount++] = Encryption.fastExponentiation(character, publicKey, modulus);
                 }
 
                 // Save ciphertext
-                try (PrintWriter cipherWriter = new PrintWriter("ciphertext.txt")) 
-                {
-                    cipherWriter.println(cipherBuilder.toString().trim());
-                }
+                SegmentIndex.rewrite(new File("ciphertext.txt"), cipherValues, cipherCount);
 
-                feedbackLabel.setText("Status: Encryption successful. Files saved.");
+                feedbackLabel.setText("Status: Encryption successful. Files saved. Key ID: " + RSAKeyPair.formatKeyId(keyPair.getKeyId()));
             } 
             catch (NumberFormatException ex) 
             {
@@ -185,47 +188,6 @@ public class RSAEncryptionGUI extends JFrame
         }
     }
 
-    /**
-     * Checks whether a number is prime.
-     *
-     * @param number The number to check.
-     * @return True if the number is prime, false otherwise.
-     */
-    private boolean isPrime(long number) 
-    {
-        if (number <= 1) 
-        	return false;
-        if (number <= 3) 
-        	return true;
-        if (number % 2 == 0 || number % 3 == 0) 
-        	return false;
-        for (long i = 5; i * i <= number; i += 6) 
-        {
-            if (number % i == 0 || number % (i + 2) == 0) 
-            	return false;
-        }
-        return true;
-    }
-
-    /**
-     * Generates a random prime number within a range.
-     *
-     * @param min The minimum value for the prime.
-     * @param max The maximum value for the prime.
-     * @return A randomly generated prime number.
-     */
-    private long generateRandomPrime(int min, int max) 
-    {
-        Random random = new Random();
-        long option;
-        do 
-        {
-            option = random.nextInt(max - min + 1) + min;
-        } 
-        while (!isPrime(option));
-        return option;
-    }
-
     /**
      * Finds a public key that is coprime with the totient.
      *
@@ -284,25 +246,4 @@ public class RSAEncryptionGUI extends JFrame
         }
         return a;
     }
-
-    /**
-     * Performs modular exponentiation.
-     *
-     * @param base     The base value.
-     * @param exponent The exponent value.
-     * @param mod      The modulus value.
-     * @return The result of (base^exponent) % mod.
-     */
-    private long modPower(long base, long exponent, long mod) 
-    {
-        long result = 1;
-        base %= mod;
-        while (exponent > 0) 
-        {
-            if ((exponent & 1) == 1) result = (result * base) % mod;
-            exponent >>= 1;
-            base = (base * base) % mod;
-        }
-        return result;
-    }
 }
@@ -0,0 +1,126 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An RSA key pair together with the ID it is stored under in a keystore file.
+ */
+public class RSAKeyPair
+{
+    private final long keyId; // ID the pair is looked up by
+    private final long modulus; // Modulus (n)
+    private final long publicKey; // Public exponent (e)
+    private final long privateKey; // Private exponent (d)
+
+    /**
+     * Creates a key pair with an explicit ID.
+     *
+     * @param keyId      The ID to store the pair under.
+     * @param modulus    The modulus (n).
+     * @param publicKey  The public exponent (e).
+     * @param privateKey The private exponent (d).
+     */
+    public RSAKeyPair(long keyId, long modulus, long publicKey, long privateKey)
+    {
+        this.keyId = keyId;
+        this.modulus = modulus;
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * Creates a key pair whose ID is the fingerprint of its public key.
+     *
+     * @param modulus    The modulus (n).
+     * @param publicKey  The public exponent (e).
+     * @param privateKey The private exponent (d).
+     */
+    public RSAKeyPair(long modulus, long publicKey, long privateKey)
+    {
+        this(fingerprint(modulus, publicKey), modulus, publicKey, privateKey);
+    }
+
+    /**
+     * Computes the fingerprint of a public key: the first 8 bytes of SHA-256 over the modulus and exponent.
+     *
+     * @param modulus   The modulus (n).
+     * @param publicKey The public exponent (e).
+     * @return The fingerprint.
+     */
+    public static long fingerprint(long modulus, long publicKey)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(ByteBuffer.allocate(16).putLong(modulus).putLong(publicKey).array());
+            return ByteBuffer.wrap(hash).getLong();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 is not available", e); // Every JRE is required to provide it
+        }
+    }
+
+    /**
+     * Formats a key ID the way it is shown to users: 16 hexadecimal digits.
+     *
+     * @param keyId The key ID.
+     * @return The formatted ID.
+     */
+    public static String formatKeyId(long keyId)
+    {
+        return String.format("%016x", keyId);
+    }
+
+    /**
+     * Parses a key ID written by formatKeyId.
+     *
+     * @param text The hexadecimal ID.
+     * @return The key ID.
+     * @throws NumberFormatException If the text is not a valid ID.
+     */
+    public static long parseKeyId(String text)
+    {
+        return Long.parseUnsignedLong(text, 16);
+    }
+
+    /**
+     * Returns the key ID.
+     *
+     * @return The key ID.
+     */
+    public long getKeyId()
+    {
+        return keyId;
+    }
+
+    /**
+     * Returns the modulus (n).
+     *
+     * @return The modulus (n).
+     */
+    public long getModulus()
+    {
+        return modulus;
+    }
+
+    /**
+     * Returns the public exponent (e).
+     *
+     * @return The public exponent (e).
+     */
+    public long getPublicKey()
+    {
+        return publicKey;
+    }
+
+    /**
+     * Returns the private exponent (d).
+     *
+     * @return The private exponent (d).
+     */
+    public long getPrivateKey()
+    {
+        return privateKey;
+    }
+}
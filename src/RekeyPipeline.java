@@ -0,0 +1,444 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-encrypts existing ciphertext files under a new key after a key rotation.
+ *
+ * Each file is streamed in chunks: every value is decrypted with the old private key and
+ * immediately encrypted with the new public key, so plaintext only ever exists in memory.
+ * Files are processed in parallel and the finished ones are recorded in a checkpoint file,
+ * so an interrupted run can be restarted with the same arguments and picks up where it stopped.
+ * Each entry also records the size and modification time of the re-keyed output, so a file that
+ * changed since is processed again, and a run with no failures clears its entries.
+ *
+ * Usage: java RekeyPipeline &lt;old key ID&gt; &lt;new key ID&gt; &lt;ciphertext file&gt;...
+ * Both keys are read from 'keystore.rks'. The number of worker threads can be set with the
+ * rsa.rekey.threads system property and defaults to the number of processors. With
+ * -Drsa.constantTime=true the old private key is applied with the constant-time engine.
+ */
+public class RekeyPipeline
+{
+    private static final int CHUNK_SIZE = 1 << 16; // Bytes read from a ciphertext file at a time
+    private static final int MAX_TOKEN = 21; // Longest possible token plus its separator
+    private static final String TEMP_SUFFIX = ".rekey.tmp";
+
+    private final RSAKeyPair oldKey;
+    private final RSAKeyPair newKey;
+    private final ConstantTimeExponentiation constantTime; // Engine for the old private key, or null for the fast path
+    private final File checkpointFile;
+    private final Map<String, String> completed = new HashMap<>(); // Canonical path to output stamp, for this key pair
+
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong valuesDone = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+
+    public static void main(String[] args)
+    {
+        if (args.length < 3)
+        {
+            System.out.println("Usage: java RekeyPipeline <old key ID> <new key ID> <ciphertext file>...");
+            return;
+        }
+
+        // Step 1: Look up both keys in the keystore
+        RSAKeyPair oldKey;
+        RSAKeyPair newKey;
+        try (KeyStoreFile keyStore = KeyStoreFile.openReadOnly(new File("keystore.rks")))
+        {
+            oldKey = keyStore.find(RSAKeyPair.parseKeyId(args[0]));
+            newKey = keyStore.find(RSAKeyPair.parseKeyId(args[1]));
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Invalid key ID. Expected up to 16 hexadecimal digits.");
+            return;
+        }
+        catch (NoSuchFileException e)
+        {
+            System.out.println("Keystore not found. Ensure 'keystore.rks' exists.");
+            return;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error reading keystore: " + e.getMessage());
+            return;
+        }
+        if (oldKey == null || newKey == null)
+        {
+            System.out.println("No key with ID " + (oldKey == null ? args[0] : args[1]) + " in 'keystore.rks'.");
+            return;
+        }
+
+        // Step 2: Re-key the files
+        List<File> files = new ArrayList<>();
+        for (int i = 2; i < args.length; i++)
+        {
+            files.add(new File(args[i]));
+        }
+        int threads = Integer.getInteger("rsa.rekey.threads", Runtime.getRuntime().availableProcessors());
+        try
+        {
+            RekeyPipeline pipeline = new RekeyPipeline(oldKey, newKey, new File("rekey.checkpoint"));
+            int failures = pipeline.run(files, threads, System.out);
+            if (failures > 0)
+            {
+                System.out.println(failures + " file(s) failed. Fix the problem and run the same command again to resume.");
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error accessing checkpoint file: " + e.getMessage());
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            System.out.println("Re-keying interrupted. Run the same command again to resume.");
+        }
+    }
+
+    /**
+     * Creates a pipeline and loads the files already finished for this key pair from the checkpoint.
+     * Entries without an output stamp are ignored, so those files are processed again.
+     *
+     * @param oldKey         The key the files are currently encrypted with.
+     * @param newKey         The key to encrypt them with.
+     * @param checkpointFile The file recording finished files.
+     * @throws IOException If the checkpoint file exists but cannot be read.
+     */
+    public RekeyPipeline(RSAKeyPair oldKey, RSAKeyPair newKey, File checkpointFile) throws IOException
+    {
+        if (newKey.getModulus() <= 255)
+        {
+            throw new IllegalArgumentException("The new modulus (n = " + newKey.getModulus() + ") is too small for encryption.");
+        }
+        this.oldKey = oldKey;
+        this.newKey = newKey;
+        this.constantTime = ConstantTimeExponentiation.isEnabled() ? new ConstantTimeExponentiation(oldKey.getModulus()) : null;
+        this.checkpointFile = checkpointFile;
+
+        if (checkpointFile.exists())
+        {
+            String prefix = checkpointPrefix();
+            for (String line : Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8))
+            {
+                if (!line.startsWith(prefix))
+                	continue;
+                String[] parts = line.substring(prefix.length()).split(" ", 3); // Size, modification time, path
+                if (parts.length == 3)
+                	completed.put(parts[2], parts[0] + " " + parts[1]);
+            }
+        }
+    }
+
+    /**
+     * Re-keys a set of files in parallel, printing progress once a second.
+     * When every file succeeds, this key pair's checkpoint entries are removed, so a later
+     * rotation between the same keys starts from scratch.
+     *
+     * @param files    The ciphertext files to re-key in place.
+     * @param threads  The number of files to process at once.
+     * @param progress Where to print progress and failures.
+     * @return The number of files that failed.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    public int run(List<File> files, int threads, PrintStream progress) throws InterruptedException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long startTime = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> printProgress(progress, files.size(), startTime), 1, 1, TimeUnit.SECONDS);
+
+        Map<File, Future<?>> results = new LinkedHashMap<>();
+        for (File file : files)
+        {
+            results.put(file, workers.submit(() ->
+            {
+                rekeyFile(file);
+                return null;
+            }));
+        }
+
+        int failures = 0;
+        try
+        {
+            for (Map.Entry<File, Future<?>> result : results.entrySet())
+            {
+                try
+                {
+                    result.getValue().get();
+                }
+                catch (ExecutionException e)
+                {
+                    failures++;
+                    progress.println("Error re-keying '" + result.getKey() + "': " + e.getCause().getMessage());
+                }
+            }
+        }
+        finally
+        {
+            workers.shutdownNow();
+            reporter.shutdownNow();
+        }
+
+        printProgress(progress, files.size(), startTime);
+        if (failures == 0)
+        {
+            try
+            {
+                clearCheckpoint();
+            }
+            catch (IOException e)
+            {
+                progress.println("Could not clear checkpoint '" + checkpointFile + "': " + e.getMessage());
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Re-keys one file, skipping it if the checkpoint shows it is already done.
+     * The new ciphertext goes to a temporary file that is recorded in the checkpoint
+     * and then moved over the original, so a crash at any point can be resumed safely.
+     * A checkpoint entry only counts if the temporary file or the file itself still has
+     * the recorded size and modification time; otherwise the file is processed again.
+     *
+     * @param file The ciphertext file to re-key in place.
+     * @throws IOException If the file cannot be read, is malformed, or cannot be replaced.
+     */
+    private void rekeyFile(File file) throws IOException
+    {
+        String name = file.getCanonicalPath();
+        Path temp = Paths.get(name + TEMP_SUFFIX);
+        String recorded = completedStamp(name);
+        if (recorded != null)
+        {
+            if (Files.exists(temp) && recorded.equals(stamp(temp)))
+            {
+                // Finish a move that was interrupted after the checkpoint was written
+                Files.deleteIfExists(SegmentIndex.indexFileFor(file).toPath());
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                filesDone.incrementAndGet();
+                return;
+            }
+            if (!Files.exists(temp) && recorded.equals(stamp(file.toPath())))
+            {
+                filesDone.incrementAndGet(); // Moved into place before the previous run stopped
+                return;
+            }
+        }
+
+        try (InputStream in = new FileInputStream(file);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp)))
+        {
+            transform(in, out);
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(temp); // Leave the original untouched for the next attempt
+            throw e;
+        }
+        recordCompleted(name, stamp(temp));
+        Files.deleteIfExists(SegmentIndex.indexFileFor(file).toPath()); // Segment offsets change; the index is rebuilt on next use
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        filesDone.incrementAndGet();
+    }
+
+    /**
+     * Streams ciphertext from one key to the other, a chunk at a time.
+     *
+     * @param in  The ciphertext under the old key.
+     * @param out Where to write the ciphertext under the new key, keeping the line breaks between segments.
+     * @throws IOException If reading or writing fails, or a token is malformed.
+     */
+    private void transform(InputStream in, OutputStream out) throws IOException
+    {
+        byte[] input = new byte[CHUNK_SIZE + MAX_TOKEN];
+        long[] values = new long[(input.length + 1) / 2];
+        byte[] output = new byte[values.length * MAX_TOKEN];
+        byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        boolean first = true;
+        int carry = 0; // Bytes of a token split across the chunk boundary, kept at the start of the buffer
+        long chunkOffset = 0; // File offset of input[0]
+
+        while (true)
+        {
+            int read = in.read(input, carry, CHUNK_SIZE);
+            boolean end = read < 0;
+            int filled = carry + Math.max(read, 0);
+
+            // Only parse up to the last separator; the rest may be the start of a token in the next chunk
+            int cut = filled;
+            if (!end)
+            {
+                while (cut > 0 && !CiphertextCodec.isSeparator(input[cut - 1]))
+                	cut--;
+                if (filled - cut > MAX_TOKEN)
+                	cut = filled; // Too long to be a valid token, so let the codec report it
+            }
+
+            // Handle one line at a time so each segment of an appended file stays on its own line
+            int pos = 0;
+            int count = 0;
+            int lineStart = 0;
+            while (lineStart < cut)
+            {
+                int lineEnd = lineStart;
+                while (lineEnd < cut && input[lineEnd] != '\n')
+                	lineEnd++;
+
+                int lineCount;
+                try
+                {
+                    lineCount = CiphertextCodec.decode(input, lineStart, lineEnd, values);
+                }
+                catch (CiphertextCodec.MalformedTokenException e)
+                {
+                    throw new IOException("Malformed token at byte offset " + (chunkOffset + e.getOffset()), e);
+                }
+
+                for (int i = 0; i < lineCount; i++)
+                {
+                    // A value outside the old modulus or a non-printable result means the file was not
+                    // encrypted with the old key; stop before the data is re-encrypted into garbage
+                    if (values[i] < 0 || values[i] >= oldKey.getModulus())
+                    {
+                        throw new IOException("Value " + values[i] + " is not below the old modulus " + oldKey.getModulus()
+                                + "; the file was not encrypted with key " + RSAKeyPair.formatKeyId(oldKey.getKeyId()));
+                    }
+                    long plain = constantTime != null
+                            ? constantTime.modPow(values[i], oldKey.getPrivateKey())
+                            : Decryption.computeModularPower(values[i], oldKey.getPrivateKey(), oldKey.getModulus());
+                    if (plain < 32 || plain > 126)
+                    {
+                        throw new IOException("Value " + values[i] + " does not decrypt to a printable character"
+                                + "; the file was not encrypted with key " + RSAKeyPair.formatKeyId(oldKey.getKeyId()));
+                    }
+                    if (!first)
+                    	output[pos++] = ' ';
+                    first = false;
+                    pos = CiphertextCodec.encode(Encryption.fastExponentiation(plain, newKey.getPublicKey(), newKey.getModulus()), output, pos);
+                }
+                count += lineCount;
+
+                if (lineEnd < cut)
+                {
+                    System.arraycopy(lineSeparator, 0, output, pos, lineSeparator.length);
+                    pos += lineSeparator.length;
+                    first = true;
+                    lineEnd++;
+                }
+                lineStart = lineEnd;
+            }
+            out.write(output, 0, pos);
+            valuesDone.addAndGet(count);
+            bytesDone.addAndGet(cut);
+
+            if (end)
+            	return;
+            carry = filled - cut;
+            System.arraycopy(input, cut, input, 0, carry);
+            chunkOffset += cut;
+        }
+    }
+
+    /**
+     * Looks up the checkpoint entry of a file for this key pair.
+     *
+     * @param name The canonical path of the file.
+     * @return The recorded size and modification time of the re-keyed output, or null if the file is not recorded.
+     */
+    private synchronized String completedStamp(String name)
+    {
+        return completed.get(name);
+    }
+
+    /**
+     * Appends a finished file to the checkpoint and forces it to disk.
+     *
+     * @param name  The canonical path of the file.
+     * @param stamp The size and modification time of the re-keyed output.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    private synchronized void recordCompleted(String name, String stamp) throws IOException
+    {
+        try (FileOutputStream checkpoint = new FileOutputStream(checkpointFile, true))
+        {
+            checkpoint.write((checkpointPrefix() + stamp + " " + name + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            checkpoint.getFD().sync();
+        }
+        completed.put(name, stamp);
+    }
+
+    /**
+     * Removes this key pair's entries from the checkpoint, deleting the file once no entries are left.
+     *
+     * @throws IOException If the checkpoint cannot be rewritten.
+     */
+    private synchronized void clearCheckpoint() throws IOException
+    {
+        completed.clear();
+        if (!checkpointFile.exists())
+        	return;
+
+        String prefix = checkpointPrefix();
+        List<String> others = new ArrayList<>();
+        for (String line : Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8))
+        {
+            if (!line.startsWith(prefix))
+            	others.add(line);
+        }
+        if (others.isEmpty())
+        {
+            Files.delete(checkpointFile.toPath());
+            return;
+        }
+        Path temp = Paths.get(checkpointFile.getPath() + ".tmp");
+        Files.write(temp, others, StandardCharsets.UTF_8);
+        Files.move(temp, checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Describes a file's current content cheaply, by size and modification time.
+     *
+     * @param path The file.
+     * @return The size and modification time in milliseconds, separated by a space.
+     * @throws IOException If the file cannot be examined.
+     */
+    private static String stamp(Path path) throws IOException
+    {
+        return Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    /**
+     * Returns the start of every checkpoint line for this key pair, so rotations to different keys do not mix.
+     *
+     * @return The line prefix.
+     */
+    private String checkpointPrefix()
+    {
+        return RSAKeyPair.formatKeyId(oldKey.getKeyId()) + " " + RSAKeyPair.formatKeyId(newKey.getKeyId()) + " ";
+    }
+
+    /**
+     * Prints how many files and values have been processed and the throughput so far.
+     *
+     * @param progress   Where to print.
+     * @param totalFiles The number of files in the run.
+     * @param startTime  The System.nanoTime() value when the run started.
+     */
+    private void printProgress(PrintStream progress, int totalFiles, long startTime)
+    {
+        double seconds = Math.max((System.nanoTime() - startTime) / 1e9, 1e-9);
+        progress.printf("Re-keyed %d/%d files, %d values (%.0f values/s, %.2f MB/s)%n",
+                filesDone.get(), totalFiles, valuesDone.get(),
+                valuesDone.get() / seconds, bytesDone.get() / seconds / (1024 * 1024));
+    }
+}
@@ -0,0 +1,435 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Splits a ciphertext file into segments so it can grow by appending and be read a slice at a time.
+ *
+ * Every segment is one line of space-separated values, so a file written by an older version is
+ * simply a file with one segment, and reading the whole file still yields every value in order.
+ * Next to the ciphertext, an index file ('ciphertext.txt.idx' for 'ciphertext.txt') stores the byte
+ * range and value count of each segment as fixed 24-byte records, after a 16-byte header holding a
+ * CRC32 of the last segment. The index is only a cache: if it is missing, its recorded length differs
+ * from the file's, or the last segment's bytes no longer match the checksum, it is rebuilt in memory by
+ * scanning the file for line breaks. Only appends write the index file, so readers need no write access.
+ *
+ * Appends and full rewrites hold an exclusive lock, so concurrent appenders never write at the same
+ * offset and an append never lands in a file that is being replaced. The lock is taken on a separate
+ * lock file ('ciphertext.txt.lock') because closing any other handle to the ciphertext file, as reading
+ * the index does, would release a lock held on the ciphertext file itself.
+ */
+public class SegmentIndex
+{
+    private static final int MAGIC = 0x52534958; // "RSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16; // Magic, version, checksum of the last segment
+    private static final int RECORD_SIZE = 24; // Start offset, length, value count, end offset including the line break
+
+    private final File ciphertextFile;
+    private long[] offsets; // Byte offset where each segment's values start
+    private int[] lengths; // Bytes of values in each segment, without the line break
+    private int[] counts; // Number of values in each segment
+    private long[] ends; // File length once each segment and its line break are included
+    private int size; // Number of segments
+    private long checksum; // CRC32 of the last segment as stored in the index file
+
+    /**
+     * Creates an empty index for a ciphertext file; use load to read an existing one.
+     *
+     * @param ciphertextFile The ciphertext file the index describes.
+     */
+    private SegmentIndex(File ciphertextFile)
+    {
+        this.ciphertextFile = ciphertextFile;
+        this.offsets = new long[16];
+        this.lengths = new int[16];
+        this.counts = new int[16];
+        this.ends = new long[16];
+    }
+
+    /**
+     * Returns the index file that belongs to a ciphertext file.
+     *
+     * @param ciphertextFile The ciphertext file.
+     * @return The index file next to it.
+     */
+    public static File indexFileFor(File ciphertextFile)
+    {
+        return new File(ciphertextFile.getPath() + ".idx");
+    }
+
+    /**
+     * Returns the lock file that serializes appends to a ciphertext file.
+     *
+     * @param ciphertextFile The ciphertext file.
+     * @return The lock file next to it.
+     */
+    private static File lockFileFor(File ciphertextFile)
+    {
+        return new File(ciphertextFile.getPath() + ".lock");
+    }
+
+    /**
+     * Loads the segment index of a ciphertext file, rebuilding it in memory if the index file is missing
+     * or stale. The index file is never written here; the next append stores the rebuilt index.
+     *
+     * @param ciphertextFile The ciphertext file.
+     * @return The index.
+     * @throws IOException If either file cannot be read.
+     */
+    public static SegmentIndex load(File ciphertextFile) throws IOException
+    {
+        SegmentIndex index = new SegmentIndex(ciphertextFile);
+        File indexFile = indexFileFor(ciphertextFile);
+        if (indexFile.exists() && index.readIndexFile(indexFile) && index.end() == ciphertextFile.length()
+                && index.checksum == index.lastSegmentChecksum())
+        {
+            return index;
+        }
+
+        index = new SegmentIndex(ciphertextFile);
+        if (ciphertextFile.exists())
+        {
+            index.scan();
+        }
+        return index;
+    }
+
+    /**
+     * Appends values to a ciphertext file as a new segment and records it in the index.
+     * The ciphertext is forced to disk before the index, so a crash can only leave the index stale,
+     * which the next load detects and repairs. Other appenders wait on the file lock until the index
+     * is written, so each one sees the segments added before it.
+     *
+     * @param ciphertextFile The ciphertext file; created if it does not exist.
+     * @param values         The encrypted values of the new segment.
+     * @param count          The number of values to take from the array.
+     * @return The number of the new segment, counting from 0.
+     * @throws IOException If either file cannot be written.
+     */
+    public static int appendSegment(File ciphertextFile, long[] values, int count) throws IOException
+    {
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        byte[] line = CiphertextCodec.encodeLine(values, count);
+
+        try (FileChannel lockChannel = FileChannel.open(lockFileFor(ciphertextFile).toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE))
+        {
+            FileLock lock = lockChannel.lock();
+            try
+            {
+                SegmentIndex index = load(ciphertextFile);
+                try (FileChannel channel = FileChannel.open(ciphertextFile.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE))
+                {
+                    long start = channel.size();
+                    ByteBuffer output = ByteBuffer.allocate(separator.length * 2 + line.length);
+                    if (start > 0 && !endsWithLineBreak(channel, start))
+                    {
+                        output.put(separator); // Close off an unterminated last line so it stays its own segment
+                    }
+                    long valuesStart = start + output.position();
+                    output.put(line).put(separator).flip();
+                    while (output.hasRemaining())
+                    {
+                        start += channel.write(output, start);
+                    }
+                    channel.force(false);
+
+                    index.add(valuesStart, line.length, count, start);
+                }
+                index.writeIndexFile(indexFileFor(ciphertextFile));
+                return index.size - 1;
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Replaces a ciphertext file with a single segment and removes its index, under the append lock.
+     *
+     * @param ciphertextFile The ciphertext file; created if it does not exist.
+     * @param values         The encrypted values of the new content.
+     * @param count          The number of values to take from the array.
+     * @throws IOException If the file cannot be written or the old index cannot be removed.
+     */
+    public static void rewrite(File ciphertextFile, long[] values, int count) throws IOException
+    {
+        try (FileChannel lockChannel = FileChannel.open(lockFileFor(ciphertextFile).toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE))
+        {
+            FileLock lock = lockChannel.lock();
+            try
+            {
+                CiphertextCodec.writeFile(ciphertextFile, values, count);
+                Files.deleteIfExists(indexFileFor(ciphertextFile).toPath()); // The old segments are gone
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return The segment count.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of values in a segment.
+     *
+     * @param segment The segment number, counting from 0.
+     * @return The value count.
+     */
+    public int valueCount(int segment)
+    {
+        checkSegment(segment);
+        return counts[segment];
+    }
+
+    /**
+     * Reads and parses the values of a range of segments without touching the rest of the file.
+     *
+     * @param first The first segment to read, counting from 0.
+     * @param last  The last segment to read, inclusive.
+     * @return The values of the segments in order.
+     * @throws IOException If the file cannot be read or a segment contains a malformed token.
+     */
+    public long[] readSegments(int first, int last) throws IOException
+    {
+        checkSegment(first);
+        checkSegment(last);
+        if (first > last)
+        {
+            throw new IllegalArgumentException("First segment " + first + " is after last segment " + last);
+        }
+
+        long start = offsets[first];
+        long end = offsets[last] + lengths[last];
+        if (end - start > Integer.MAX_VALUE)
+        {
+            throw new IOException("Segments " + first + " to " + last + " are too large to read at once");
+        }
+        byte[] data = new byte[(int) (end - start)];
+        try (RandomAccessFile file = new RandomAccessFile(ciphertextFile, "r"))
+        {
+            file.seek(start);
+            file.readFully(data);
+        }
+
+        try
+        {
+            return CiphertextCodec.decode(data, data.length);
+        }
+        catch (CiphertextCodec.MalformedTokenException e)
+        {
+            throw new CiphertextCodec.MalformedTokenException("Malformed token", (int) (start + e.getOffset()));
+        }
+    }
+
+    /**
+     * Rebuilds the index by scanning the ciphertext file for line breaks.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private void scan() throws IOException
+    {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(ciphertextFile)))
+        {
+            long position = 0;
+            long lineStart = 0;
+            long lineEnd = 0; // End of the values on the current line, before any '\r'
+            int count = 0;
+            boolean inToken = false;
+            int b;
+            while ((b = in.read()) >= 0)
+            {
+                position++;
+                if (b == '\n')
+                {
+                    add(lineStart, (int) (lineEnd - lineStart), count, position);
+                    lineStart = position;
+                    lineEnd = position;
+                    count = 0;
+                    inToken = false;
+                    continue;
+                }
+                boolean separator = CiphertextCodec.isSeparator((byte) b);
+                if (!separator && !inToken)
+                	count++;
+                inToken = !separator;
+                if (b != '\r')
+                	lineEnd = position;
+            }
+            if (position > lineStart)
+            {
+                add(lineStart, (int) (lineEnd - lineStart), count, position); // Last line has no line break
+            }
+        }
+    }
+
+    /**
+     * Reads the index file.
+     *
+     * @param indexFile The index file.
+     * @return True if the file was read, false if it is truncated or in another format and should be rebuilt.
+     * @throws IOException If the file cannot be read.
+     */
+    private boolean readIndexFile(File indexFile) throws IOException
+    {
+        long length = indexFile.length();
+        if (length < HEADER_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0)
+        	return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            	return false;
+            checksum = in.readLong();
+            for (long i = 0; i < (length - HEADER_SIZE) / RECORD_SIZE; i++)
+            {
+                add(in.readLong(), in.readInt(), in.readInt(), in.readLong());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the whole index to a temporary file and moves it into place. Only called under the append lock.
+     *
+     * @param indexFile The index file.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeIndexFile(File indexFile) throws IOException
+    {
+        long lastChecksum = lastSegmentChecksum();
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(indexFile.getName() + ".", ".tmp", directory);
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(lastChecksum);
+                for (int i = 0; i < size; i++)
+                {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                    out.writeInt(counts[i]);
+                    out.writeLong(ends[i]);
+                }
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp.toPath()); // Only left behind if the write or move failed
+        }
+    }
+
+    /**
+     * Computes a CRC32 of the last segment's bytes as they are in the ciphertext file now, line break
+     * included. A file replaced by a different one of the same length almost always fails this check.
+     *
+     * @return The checksum, or 0 if there are no segments or the file is shorter than the index says.
+     * @throws IOException If the file cannot be read.
+     */
+    private long lastSegmentChecksum() throws IOException
+    {
+        if (size == 0)
+        	return 0;
+        long start = offsets[size - 1];
+        long end = ends[size - 1];
+        if (end > ciphertextFile.length() || end - start > Integer.MAX_VALUE)
+        	return 0;
+
+        byte[] data = new byte[(int) (end - start)];
+        try (RandomAccessFile file = new RandomAccessFile(ciphertextFile, "r"))
+        {
+            file.seek(start);
+            file.readFully(data);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the length of the ciphertext file the index describes.
+     *
+     * @return The end of the last segment, or 0 if there are none.
+     */
+    private long end()
+    {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    /**
+     * Adds a segment to the end of the in-memory index.
+     *
+     * @param offset The byte offset where the segment's values start.
+     * @param length The bytes of values, without the line break.
+     * @param count  The number of values.
+     * @param end    The file length once this segment and its line break are included.
+     */
+    private void add(long offset, int length, int count, long end)
+    {
+        if (size == offsets.length)
+        {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        offsets[size] = offset;
+        lengths[size] = length;
+        counts[size] = count;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Checks whether the last byte of a file is a line feed.
+     *
+     * @param channel The open file.
+     * @param size    The size of the file; must be positive.
+     * @return True if the file ends with a line feed.
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean endsWithLineBreak(FileChannel channel, long size) throws IOException
+    {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    /**
+     * Checks that a segment number is in range.
+     *
+     * @param segment The segment number.
+     */
+    private void checkSegment(int segment)
+    {
+        if (segment < 0 || segment >= size)
+        {
+            throw new IndexOutOfBoundsException("Segment " + segment + " does not exist; the file has " + size + " segment(s)");
+        }
+    }
+}